@@ -0,0 +1,149 @@
+package com.hideakin.mycrypto.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hideakin.mycrypto.CipherTransfer;
+import com.hideakin.mycrypto.constant.OperationalMode;
+import com.hideakin.mycrypto.constant.Transformation;
+
+/**
+ * Measures every transformation that the command line accepts,
+ * in both directions and over buffer sizes from 64 bytes to 16 MiB.
+ *
+ * Throughput (ops/s) and per-op latency (us/op) are reported for each combination;
+ * pass -rf json -rff FILE to the benchmark jar to export the results.
+ * Multiply ops/s by the buffer size to get bytes per second.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CipherBenchmark {
+
+	@Param
+	public Transformation transformation;
+
+	@Param({ "64", "1024", "16384", "262144", "1048576", "16777216" })
+	public int size;
+
+	@Param({ "ENCRYPT", "DECRYPT" })
+	public String direction;
+
+	private Cipher _cipher;
+	private SecretKeySpec _keySpec;
+	private byte[] _iv;
+	private byte[] _input;
+	private byte[] _output;
+	private int _operation;
+	private long _counter = 0L;
+
+	@Setup
+	public void setUp() throws Exception {
+		Random random = new Random(size);
+		byte[] key = new byte[transformation.keyLength()];
+		random.nextBytes(key);
+		_keySpec = new SecretKeySpec(key, transformation.algorithm().label());
+		_iv = new byte[transformation.mode() == OperationalMode.GCM ? 12 : 16];
+		random.nextBytes(_iv);
+		_cipher = Cipher.getInstance(transformation.jceName());
+		byte[] plaintext = new byte[size];
+		random.nextBytes(plaintext);
+		if ("ENCRYPT".equals(direction)) {
+			_operation = Cipher.ENCRYPT_MODE;
+			_input = plaintext;
+		} else {
+			init(Cipher.ENCRYPT_MODE);
+			_input = _cipher.doFinal(plaintext);
+			_operation = Cipher.DECRYPT_MODE;
+		}
+		init(_operation);
+		_output = new byte[_cipher.getOutputSize(_input.length)];
+	}
+
+	private void init(int operation) throws Exception {
+		switch (transformation.mode()) {
+		case ECB:
+			_cipher.init(operation, _keySpec);
+			break;
+		case GCM:
+			_cipher.init(operation, _keySpec, new GCMParameterSpec(128, _iv));
+			break;
+		default:
+			_cipher.init(operation, _keySpec, new IvParameterSpec(_iv));
+			break;
+		}
+	}
+
+	/**
+	 * Prepares the Cipher for the next operation.
+	 * GCM does not allow an encryption nonce to be reused, so every GCM encryption gets a fresh one;
+	 * the other modes return to their initial state after doFinal.
+	 */
+	private void reset() throws Exception {
+		if (transformation.mode() == OperationalMode.GCM) {
+			if (_operation == Cipher.ENCRYPT_MODE) {
+				long n = ++_counter;
+				for (int i = 0; i < 8; i++) {
+					_iv[_iv.length - 1 - i] = (byte)(n >> (8 * i));
+				}
+			}
+			init(_operation);
+		}
+	}
+
+	/**
+	 * Encrypts or decrypts one whole buffer with a single doFinal.
+	 */
+	@Benchmark
+	public int doFinal() throws Exception {
+		reset();
+		return _cipher.doFinal(_input, 0, _input.length, _output, 0);
+	}
+
+	/**
+	 * Streams one whole buffer through the same loop as the command line, in 8 KiB chunks.
+	 */
+	@Benchmark
+	public long transfer() throws Exception {
+		reset();
+		CipherTransfer transfer = new CipherTransfer(_cipher);
+		transfer.update(new ByteArrayInputStream(_input), DISCARD);
+		transfer.doFinal(DISCARD);
+		return transfer.outBytes();
+	}
+
+	private static final OutputStream DISCARD = new OutputStream() {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+
+	};
+
+}
@@ -0,0 +1,127 @@
+package com.hideakin.mycrypto.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Measures the wall-clock time of single-shot invocations, the case where the JVM
+ * start-up and class loading cost more than the encryption itself.
+ *
+ *   mvn -DskipTests package                      (in the parent directory)
+ *   java -cp benchmarks/target/benchmarks.jar com.hideakin.mycrypto.benchmark.StartupBenchmark [RUNS]
+ *
+ * Every command is timed with and without an AppCDS archive of the application,
+ * which is created by a training run with -XX:ArchiveClassesAtExit (JDK 13+).
+ * The archive belongs to the exact JDK and jar it was created with, so it is created again whenever the jar is newer.
+ */
+public class StartupBenchmark {
+
+	private static final String KEY = "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED";
+	private static final String IV = "B87E2F0E1BEB474894C501967A8B9C0D";
+
+	private final Path _jar;
+	private final Path _tmpDir;
+
+	public StartupBenchmark(Path jar, Path tmpDir) {
+		_jar = jar;
+		_tmpDir = tmpDir;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		Path target = Paths.get("target");
+		Path jar = findJar(target);
+		if (jar == null) {
+			System.err.printf("ERROR: jar not found in %s; run mvn -DskipTests package first.\n", target.toAbsolutePath());
+			System.exit(1);
+		}
+		Path jsa = target.resolve("mycrypt.jsa");
+		Path tmpDir = Files.createTempDirectory("mycrypt-startup");
+		try {
+			StartupBenchmark benchmark = new StartupBenchmark(jar, tmpDir);
+			Random random = new Random();
+			byte[] plain = new byte[4096];
+			random.nextBytes(plain);
+			Files.write(tmpDir.resolve("plain"), plain);
+			if (!Files.exists(jsa) || Files.getLastModifiedTime(jar).compareTo(Files.getLastModifiedTime(jsa)) > 0) {
+				Files.deleteIfExists(jsa);
+				benchmark.run(benchmark.encrypt(), "-XX:ArchiveClassesAtExit=" + jsa, "-Xlog:cds=off", "-Xlog:cds+dynamic=off");
+				System.out.printf("Created %s\n", jsa);
+			}
+			System.out.printf("%-10s %12s %12s\n", "command", "default(ms)", "appcds(ms)");
+			String[] names = { "encrypt", "decrypt", "help" };
+			List<List<String>> commands = List.of(benchmark.encrypt(), benchmark.decrypt(), List.of());
+			for (int i = 0; i < names.length; i++) {
+				System.out.printf("%-10s %12d %12d\n", names[i],
+						benchmark.measure(commands.get(i), runs),
+						benchmark.measure(commands.get(i), runs, "-XX:SharedArchiveFile=" + jsa));
+			}
+		} finally {
+			try (Stream<Path> stream = Files.walk(tmpDir)) {
+				stream.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+			}
+		}
+	}
+
+	private static Path findJar(Path dir) throws IOException {
+		if (Files.isDirectory(dir)) {
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "mycrypt-*.jar")) {
+				for (Path path : stream) {
+					return path;
+				}
+			}
+		}
+		return null;
+	}
+
+	private List<String> encrypt() {
+		return List.of("aes-256-cbc", "-e", path("plain"), "-o", path("cipher"), "-overwrite", path("cipher"), "-k", KEY, "-iv", IV);
+	}
+
+	private List<String> decrypt() {
+		return List.of("aes-256-cbc", "-d", path("cipher"), "-o", path("plain2"), "-overwrite", path("plain2"), "-k", KEY, "-iv", IV);
+	}
+
+	private String path(String name) {
+		return _tmpDir.resolve(name).toString();
+	}
+
+	/**
+	 * Returns the mean milliseconds of the given number of invocations, after one to warm up the file system cache.
+	 */
+	public long measure(List<String> arguments, int runs, String... options) throws Exception {
+		run(arguments, options);
+		long start = System.nanoTime();
+		for (int i = 0; i < runs; i++) {
+			run(arguments, options);
+		}
+		return (System.nanoTime() - start) / runs / 1000000L;
+	}
+
+	private void run(List<String> arguments, String... options) throws Exception {
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		command.addAll(List.of(options));
+		command.add("-jar");
+		command.add(_jar.toString());
+		command.addAll(arguments);
+		Process process = new ProcessBuilder(command)
+				.redirectOutput(ProcessBuilder.Redirect.DISCARD)
+				.redirectError(ProcessBuilder.Redirect.INHERIT)
+				.start();
+		int status = process.waitFor();
+		if (status != 0) {
+			throw new RuntimeException(String.format("Command failed with status %d: %s", status, String.join(" ", command)));
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+package com.hideakin.mycrypto;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Undo log that makes an in-place append to a file all-or-nothing.
+ *
+ * Layout:
+ *   magic "MYCJ" (4) | original length (8) | offset (8) | original bytes from offset to the end | CRC32 of the preceding bytes (8)
+ *
+ * begin() saves the bytes that the append is going to overwrite and forces the journal to disk before the file is touched.
+ * commit() forces the file and deletes the journal.
+ * recover() finds a journal left by an interrupted append and puts the file back as it was.
+ * A journal whose checksum does not match was cut short before the file was touched, and is just deleted.
+ */
+public class AppendJournal {
+
+	private static final byte[] MAGIC = { 'M', 'Y', 'C', 'J' };
+	private static final int PREFIX_LENGTH = 20;
+	private static final int TRAILER_LENGTH = 8;
+
+	public static Path pathOf(Path file) {
+		return Paths.get(file.toString() + ".journal");
+	}
+
+	public static void begin(FileChannel file, Path journal, long offset) throws Exception {
+		long length = file.size();
+		ByteBuffer buf = ByteBuffer.allocate(PREFIX_LENGTH + (int)(length - offset) + TRAILER_LENGTH);
+		buf.put(MAGIC).putLong(length).putLong(offset);
+		buf.limit(buf.capacity() - TRAILER_LENGTH);
+		while (buf.hasRemaining()) {
+			if (file.read(buf, offset + buf.position() - PREFIX_LENGTH) < 0) {
+				throw new RuntimeException("Output file was truncated while processing.");
+			}
+		}
+		buf.limit(buf.capacity());
+		CRC32 crc = new CRC32();
+		crc.update(buf.array(), 0, buf.position());
+		buf.putLong(crc.getValue());
+		buf.flip();
+		try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+			channel.force(true);
+		}
+	}
+
+	public static void commit(FileChannel file, Path journal) throws Exception {
+		file.force(true);
+		Files.delete(journal);
+	}
+
+	/**
+	 * Rolls back the append that left the given journal, if any.
+	 * Returns true if the file was restored.
+	 */
+	public static boolean recover(FileChannel file, Path journal) throws Exception {
+		if (!Files.exists(journal)) {
+			return false;
+		}
+		ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(journal));
+		boolean restored = false;
+		if (isValid(buf.array())) {
+			buf.position(MAGIC.length);
+			long length = buf.getLong();
+			long offset = buf.getLong();
+			buf.limit(buf.capacity() - TRAILER_LENGTH);
+			while (buf.hasRemaining()) {
+				file.write(buf, offset + buf.position() - PREFIX_LENGTH);
+			}
+			file.truncate(length);
+			file.force(true);
+			restored = true;
+		}
+		Files.delete(journal);
+		return restored;
+	}
+
+	private static boolean isValid(byte[] data) {
+		if (data.length < PREFIX_LENGTH + TRAILER_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (data[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length - TRAILER_LENGTH);
+		return crc.getValue() == ByteBuffer.wrap(data, data.length - TRAILER_LENGTH, TRAILER_LENGTH).getLong();
+	}
+
+}
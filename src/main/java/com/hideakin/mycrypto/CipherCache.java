@@ -0,0 +1,131 @@
+package com.hideakin.mycrypto;
+
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.Cipher;
+
+/**
+ * Per-thread pool of Cipher objects keyed by transformation, provider and key fingerprint.
+ *
+ * A Cipher taken by acquire() belongs to the caller until it is given back by release(),
+ * so that no two jobs share an instance.
+ * Re-initializing a pooled Cipher with the same key lets the provider skip the key expansion.
+ * Each thread keeps at most CAPACITY idle instances; the least recently used ones are dropped.
+ */
+public class CipherCache {
+
+	public static final int CAPACITY = 16;
+
+	private static final CipherCache _shared = new CipherCache(CAPACITY);
+
+	public static CipherCache shared() {
+		return _shared;
+	}
+
+	private static class Key {
+
+		private final String _transformation;
+		private final String _provider;
+		private final byte[] _fingerprint;
+		private final int _hashCode;
+
+		public Key(String transformation, String provider, byte[] fingerprint) {
+			_transformation = transformation;
+			_provider = provider;
+			_fingerprint = fingerprint;
+			_hashCode = (transformation.hashCode() * 31 + provider.hashCode()) * 31 + Arrays.hashCode(fingerprint);
+		}
+
+		@Override
+		public int hashCode() {
+			return _hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Key) {
+				Key other = (Key)obj;
+				return _transformation.equals(other._transformation) && _provider.equals(other._provider)
+						&& Arrays.equals(_fingerprint, other._fingerprint);
+			}
+			return false;
+		}
+
+	}
+
+	private final int _capacity;
+	private final ThreadLocal<LinkedHashMap<Key, Deque<Cipher>>> _pools = ThreadLocal.withInitial(() -> new LinkedHashMap<>(16, 0.75f, true));
+	private final ThreadLocal<MessageDigest> _digests = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (Exception e) {
+			throw new RuntimeException(e.getMessage());
+		}
+	});
+	private final LongAdder _hits = new LongAdder();
+	private final LongAdder _misses = new LongAdder();
+
+	public CipherCache(int capacity) {
+		_capacity = capacity;
+	}
+
+	public long hits() {
+		return _hits.sum();
+	}
+
+	public long misses() {
+		return _misses.sum();
+	}
+
+	private Key keyOf(String transformation, Provider provider, byte[] key) {
+		return new Key(transformation, provider != null ? provider.getName() : "", _digests.get().digest(key));
+	}
+
+	/**
+	 * Takes a Cipher for the given transformation, provider and key out of the pool of the current thread,
+	 * or creates a new one. A null provider stands for the JCE in its usual order. The caller has to initialize it.
+	 */
+	public Cipher acquire(String transformation, Provider provider, byte[] key) throws Exception {
+		Deque<Cipher> idle = _pools.get().get(keyOf(transformation, provider, key));
+		Cipher cipher = idle != null ? idle.pollFirst() : null;
+		if (cipher != null) {
+			_hits.increment();
+			return cipher;
+		}
+		_misses.increment();
+		return CipherProviders.getInstance(transformation, provider);
+	}
+
+	/**
+	 * Gives a Cipher back to the pool of the current thread.
+	 */
+	public void release(String transformation, Provider provider, byte[] key, Cipher cipher) {
+		LinkedHashMap<Key, Deque<Cipher>> pool = _pools.get();
+		pool.computeIfAbsent(keyOf(transformation, provider, key), (k) -> new ArrayDeque<>()).addFirst(cipher);
+		int count = 0;
+		for (Deque<Cipher> idle : pool.values()) {
+			count += idle.size();
+		}
+		// drops the least recently used ones
+		Iterator<Map.Entry<Key, Deque<Cipher>>> iterator = pool.entrySet().iterator();
+		while (count > _capacity && iterator.hasNext()) {
+			Deque<Cipher> idle = iterator.next().getValue();
+			while (count > _capacity && !idle.isEmpty()) {
+				idle.pollLast();
+				count--;
+			}
+			if (idle.isEmpty()) {
+				iterator.remove();
+			}
+		}
+	}
+
+}
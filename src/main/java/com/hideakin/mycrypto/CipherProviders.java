@@ -0,0 +1,98 @@
+package com.hideakin.mycrypto;
+
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Cipher;
+
+import com.hideakin.mycrypto.constant.Transformation;
+
+/**
+ * Looks up the JCE providers of the transformations.
+ *
+ * Every Cipher of the application is created through getInstance(), with the provider chosen by the job,
+ * or by the JCE in its usual order if there is none.
+ * Only the measurement of the fastest provider is kept for the life of the process.
+ */
+public class CipherProviders {
+
+	private static final Map<String, Provider> _fastest = new ConcurrentHashMap<>();
+
+	public static Cipher getInstance(String transformation) throws Exception {
+		return getInstance(transformation, null);
+	}
+
+	/**
+	 * Returns a new Cipher from the given provider, or from the JCE in its usual order if the provider is null.
+	 */
+	public static Cipher getInstance(String transformation, Provider provider) throws Exception {
+		return provider != null ? Cipher.getInstance(transformation, provider) : Cipher.getInstance(transformation);
+	}
+
+	/**
+	 * Returns the installed provider of the given name, checking that it supports the transformation.
+	 */
+	public static Provider provider(String name, String transformation) {
+		Provider provider = provider(name);
+		if (!supports(provider, transformation)) {
+			throw new RuntimeException(String.format("Provider %s does not support %s.", provider.getName(), transformation));
+		}
+		return provider;
+	}
+
+	/**
+	 * Measures every provider of the transformation at the given buffer size and returns the fastest one.
+	 * The result is kept for the transformation and size, so that the measurement runs once per process.
+	 */
+	public static synchronized Provider fastest(Transformation t, int size, SpeedTest test) throws Exception {
+		String key = t.jceName() + "/" + size;
+		Provider best = _fastest.get(key);
+		if (best == null) {
+			double bestSpeed = -1.0;
+			for (Provider provider : providersOf(t.jceName())) {
+				double speed = test.measure(t, provider, size);
+				if (speed > bestSpeed) {
+					best = provider;
+					bestSpeed = speed;
+				}
+			}
+			_fastest.put(key, best);
+		}
+		return best;
+	}
+
+	public static Provider provider(String name) {
+		Provider provider = Security.getProvider(name);
+		if (provider == null) {
+			throw new RuntimeException(String.format("Provider is not installed: %s", name));
+		}
+		return provider;
+	}
+
+	/**
+	 * Returns the installed providers that support the transformation, in the order of preference of the JCE.
+	 */
+	public static List<Provider> providersOf(String transformation) {
+		List<Provider> providers = new ArrayList<>();
+		for (Provider provider : Security.getProviders()) {
+			if (supports(provider, transformation)) {
+				providers.add(provider);
+			}
+		}
+		return providers;
+	}
+
+	private static boolean supports(Provider provider, String transformation) {
+		try {
+			Cipher.getInstance(transformation, provider);
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+package com.hideakin.mycrypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+
+import com.hideakin.mycrypto.jfr.ChunkEvent;
+import com.hideakin.mycrypto.jfr.Events;
+
+/**
+ * Pumps bytes from an input stream through a Cipher into an output stream.
+ *
+ * The read buffer and the output buffer are allocated once and reused,
+ * so that the loop does not allocate anything per chunk in the steady state.
+ * The output buffer grows only when the Cipher reports that it is too short.
+ */
+public class CipherTransfer {
+
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	private final Cipher _cipher;
+	private final byte[] _buf;
+	private byte[] _outBuf;
+	private long _inBytes = 0L;
+	private long _outBytes = 0L;
+	private long _chunks = 0L;
+
+	public CipherTransfer(Cipher cipher) {
+		this(cipher, DEFAULT_BUFFER_SIZE);
+	}
+
+	public CipherTransfer(Cipher cipher, int bufferSize) {
+		_cipher = cipher;
+		_buf = new byte[bufferSize];
+		_outBuf = new byte[cipher.getOutputSize(bufferSize)];
+	}
+
+	public long inBytes() {
+		return _inBytes;
+	}
+
+	public long outBytes() {
+		return _outBytes;
+	}
+
+	/**
+	 * Feeds the whole input stream to the Cipher.
+	 */
+	public void update(InputStream in, OutputStream out) throws Exception {
+		int n;
+		while ((n = in.read(_buf)) >= 0) {
+			if (n > 0) {
+				update(_buf, 0, n, out);
+			}
+		}
+	}
+
+	/**
+	 * Feeds one chunk to the Cipher.
+	 */
+	public void update(byte[] buf, int off, int len, OutputStream out) throws Exception {
+		_inBytes += len;
+		ChunkEvent event = null;
+		if (Events.enabled() && ChunkEvent.isSampled(_chunks)) {
+			event = new ChunkEvent();
+			event.begin();
+		}
+		int m;
+		try {
+			m = _cipher.update(buf, off, len, _outBuf, 0);
+		} catch (ShortBufferException e) {
+			_outBuf = new byte[_cipher.getOutputSize(len)];
+			m = _cipher.update(buf, off, len, _outBuf, 0);
+		}
+		if (event != null) {
+			event.sequence = _chunks;
+			event.inBytes = len;
+			event.outBytes = m;
+			event.commit();
+		}
+		_chunks++;
+		if (m > 0) {
+			out.write(_outBuf, 0, m);
+			_outBytes += m;
+		}
+	}
+
+	/**
+	 * Returns a stream that feeds every chunk written into it to the Cipher,
+	 * with the output going to the given stream.
+	 */
+	public OutputStream sink(OutputStream out) {
+		return new OutputStream() {
+
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte)b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				try {
+					update(b, off, len, out);
+				} catch (IOException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new IOException(e.getMessage(), e);
+				}
+			}
+
+		};
+	}
+
+	/**
+	 * Finishes the Cipher and writes the remaining output.
+	 */
+	public void doFinal(OutputStream out) throws Exception {
+		int size = _cipher.getOutputSize(0);
+		if (_outBuf.length < size) {
+			_outBuf = new byte[size];
+		}
+		int m = _cipher.doFinal(_outBuf, 0);
+		if (m > 0) {
+			out.write(_outBuf, 0, m);
+			_outBytes += m;
+		}
+	}
+
+}
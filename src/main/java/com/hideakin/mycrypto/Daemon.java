@@ -0,0 +1,157 @@
+package com.hideakin.mycrypto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Long-running server that accepts jobs over a Unix domain socket, and the matching client.
+ *
+ * Request  : working directory (UTF) | number of arguments (int) | arguments (UTF each)
+ * Response : status (int, 0 on success) | messages (int length followed by UTF-8 bytes)
+ *
+ * On a POSIX file system the socket is accessible by its owner only.
+ */
+public class Daemon {
+
+	public static final int ARGUMENTS_MAX = 1024;
+
+	public interface Handler {
+
+		/**
+		 * Runs one job with the given arguments, printing its messages to the given stream.
+		 */
+		void handle(Path workingDirectory, String[] args, PrintStream info) throws Exception;
+
+	}
+
+	private final Path _socketPath;
+
+	public Daemon(Path socketPath) {
+		_socketPath = socketPath;
+	}
+
+	/**
+	 * Serves requests until the process is terminated.
+	 */
+	public void serve(int threads, Handler handler, PrintStream log) throws Exception {
+		Files.deleteIfExists(_socketPath);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+			bind(server);
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try {
+					Files.deleteIfExists(_socketPath);
+				} catch (Exception e) {
+					// nothing to do at exit
+				}
+			}));
+			log.printf("Listening on %s\n", _socketPath);
+			while (true) {
+				SocketChannel channel = server.accept();
+				executor.execute(() -> serve(channel, handler, log));
+			}
+		} finally {
+			executor.shutdownNow();
+			Files.deleteIfExists(_socketPath);
+		}
+	}
+
+	/**
+	 * Binds the socket in a directory of 0700, restricts it to 0600 and only then moves it to the socket path,
+	 * so that nobody else can connect to it in between.
+	 */
+	private void bind(ServerSocketChannel server) throws Exception {
+		Path dir = _socketPath.toAbsolutePath().getParent();
+		if (!Files.getFileStore(dir).supportsFileAttributeView("posix")) {
+			server.bind(UnixDomainSocketAddress.of(_socketPath));
+			return;
+		}
+		Path tmpDir = Files.createTempDirectory(dir, ".daemon", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+		Path tmpPath = tmpDir.resolve("socket");
+		try {
+			server.bind(UnixDomainSocketAddress.of(tmpPath));
+			Files.setPosixFilePermissions(tmpPath, PosixFilePermissions.fromString("rw-------"));
+			Files.move(tmpPath, _socketPath, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmpPath);
+			Files.deleteIfExists(tmpDir);
+		}
+	}
+
+	private void serve(SocketChannel channel, Handler handler, PrintStream log) {
+		try (SocketChannel c = channel) {
+			DataInputStream in = new DataInputStream(Channels.newInputStream(c));
+			DataOutputStream out = new DataOutputStream(Channels.newOutputStream(c));
+			Path workingDirectory = Path.of(in.readUTF());
+			int count = in.readInt();
+			if (count < 0 || count > ARGUMENTS_MAX) {
+				reply(out, 1, String.format("ERROR: Number of arguments is out of range: %d\n", count).getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			String[] args = new String[count];
+			for (int i = 0; i < args.length; i++) {
+				args[i] = in.readUTF();
+			}
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			PrintStream info = new PrintStream(buf, true, StandardCharsets.UTF_8);
+			int status = 0;
+			try {
+				handler.handle(workingDirectory, args, info);
+			} catch (Throwable t) {
+				status = 1;
+				info.printf("ERROR: %s\n", t.getMessage());
+				while ((t = t.getCause()) != null) {
+					info.printf("       %s\n", t.getMessage());
+				}
+			}
+			reply(out, status, buf.toByteArray());
+		} catch (Exception e) {
+			log.printf("ERROR: %s\n", e.getMessage());
+		}
+	}
+
+	private static void reply(DataOutputStream out, int status, byte[] messages) throws Exception {
+		out.writeInt(status);
+		out.writeInt(messages.length);
+		out.write(messages);
+		out.flush();
+	}
+
+	/**
+	 * Sends one job to the server and prints its messages.
+	 * Returns the status of the job.
+	 */
+	public int request(Path workingDirectory, String[] args, PrintStream info) throws Exception {
+		try (SocketChannel c = SocketChannel.open(UnixDomainSocketAddress.of(_socketPath))) {
+			DataOutputStream out = new DataOutputStream(Channels.newOutputStream(c));
+			DataInputStream in = new DataInputStream(Channels.newInputStream(c));
+			out.writeUTF(workingDirectory.toString());
+			out.writeInt(args.length);
+			for (String arg : args) {
+				out.writeUTF(arg);
+			}
+			out.flush();
+			int status = in.readInt();
+			byte[] messages = new byte[in.readInt()];
+			in.readFully(messages);
+			info.print(new String(messages, StandardCharsets.UTF_8));
+			info.flush();
+			return status;
+		}
+	}
+
+}
@@ -0,0 +1,182 @@
+package com.hideakin.mycrypto;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Process-wide cache of keys derived from phrases with PBKDF2-HMAC-SHA256.
+ *
+ * Entries are keyed by the SHA-256 of the phrase, the salt, the iteration count and the key length;
+ * the phrase itself is not kept.
+ * Concurrent requests for the same entry wait for a single derivation.
+ * At most CAPACITY keys are kept; the least recently used ones are dropped.
+ *
+ * For encryption, a single job gets a new random salt from newSalt().
+ * A batch or recursive run hands out one salt per phrase and parameters through its own Salts,
+ * so that the files of the run pay for the derivation once, and no salt outlives the run.
+ */
+public class DerivedKeyCache {
+
+	public static final int CAPACITY = 64;
+	public static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+
+	private static final DerivedKeyCache _shared = new DerivedKeyCache(CAPACITY);
+
+	public static DerivedKeyCache shared() {
+		return _shared;
+	}
+
+	private static class Key {
+
+		private final byte[] _phraseDigest;
+		private final byte[] _salt;
+		private final int _iterations;
+		private final int _length;
+		private final int _hashCode;
+
+		public Key(byte[] phraseDigest, byte[] salt, int iterations, int length) {
+			_phraseDigest = phraseDigest;
+			_salt = salt;
+			_iterations = iterations;
+			_length = length;
+			_hashCode = ((Arrays.hashCode(phraseDigest) * 31 + Arrays.hashCode(salt)) * 31 + iterations) * 31 + length;
+		}
+
+		@Override
+		public int hashCode() {
+			return _hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Key) {
+				Key other = (Key)obj;
+				return _iterations == other._iterations && _length == other._length
+						&& Arrays.equals(_phraseDigest, other._phraseDigest) && Arrays.equals(_salt, other._salt);
+			}
+			return false;
+		}
+
+	}
+
+	private final int _capacity;
+	private final LinkedHashMap<Key, CompletableFuture<byte[]>> _keys = new LinkedHashMap<>(16, 0.75f, true);
+	private final LongAdder _hits = new LongAdder();
+	private final LongAdder _misses = new LongAdder();
+
+	public DerivedKeyCache(int capacity) {
+		_capacity = capacity;
+	}
+
+	public long hits() {
+		return _hits.sum();
+	}
+
+	public long misses() {
+		return _misses.sum();
+	}
+
+	/**
+	 * Salts of a batch or recursive run, one per phrase and parameters.
+	 * At most the given number of them are kept; the least recently used ones are dropped.
+	 */
+	public static class Salts {
+
+		private final int _capacity;
+		private final LinkedHashMap<Key, byte[]> _salts = new LinkedHashMap<>(16, 0.75f, true);
+
+		public Salts(int capacity) {
+			_capacity = capacity;
+		}
+
+		/**
+		 * Returns the salt to encrypt with under the given phrase and parameters.
+		 */
+		public synchronized byte[] saltFor(String phrase, int iterations, int length) {
+			Key key = new Key(digest(phrase), null, iterations, length);
+			byte[] salt = _salts.get(key);
+			if (salt == null) {
+				salt = newSalt();
+				_salts.put(key, salt);
+				while (_salts.size() > _capacity) {
+					_salts.remove(_salts.keySet().iterator().next());
+				}
+			}
+			return salt.clone();
+		}
+
+	}
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	public static byte[] newSalt() {
+		byte[] salt = new byte[KdfHeader.SALT_LENGTH];
+		RANDOM.nextBytes(salt);
+		return salt;
+	}
+
+	/**
+	 * Returns the key of the given length derived from the phrase and the salt.
+	 */
+	public byte[] derive(String phrase, byte[] salt, int iterations, int length) throws Exception {
+		Key key = new Key(digest(phrase), salt.clone(), iterations, length);
+		CompletableFuture<byte[]> future;
+		boolean owner = false;
+		synchronized (_keys) {
+			future = _keys.get(key);
+			if (future == null) {
+				future = new CompletableFuture<>();
+				_keys.put(key, future);
+				owner = true;
+				while (_keys.size() > _capacity) {
+					_keys.remove(_keys.keySet().iterator().next());
+				}
+			}
+		}
+		if (owner) {
+			_misses.increment();
+			try {
+				future.complete(pbkdf2(phrase, salt, iterations, length));
+			} catch (Exception e) {
+				synchronized (_keys) {
+					_keys.remove(key);
+				}
+				future.completeExceptionally(e);
+			}
+		} else {
+			_hits.increment();
+		}
+		try {
+			return future.get().clone();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(String.format("Failed to derive key: %s", e.getCause().getMessage()), e.getCause());
+		}
+	}
+
+	private static byte[] pbkdf2(String phrase, byte[] salt, int iterations, int length) throws Exception {
+		PBEKeySpec spec = new PBEKeySpec(phrase.toCharArray(), salt, iterations, length * 8);
+		try {
+			return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+		} finally {
+			spec.clearPassword();
+		}
+	}
+
+	private static byte[] digest(String phrase) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(phrase.getBytes(StandardCharsets.UTF_8));
+		} catch (Exception e) {
+			throw new RuntimeException(e.getMessage());
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+package com.hideakin.mycrypto;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Feeds one input stream to several CipherTransfers, each with its own output stream, reading the input only once.
+ *
+ * Two buffers take turns: while the recipients work on one chunk, the next chunk is read into the other.
+ * Given an executor, the recipients of a chunk run in parallel; otherwise they run one after another on the calling thread.
+ * Every recipient sees the chunks in order either way.
+ */
+public class FanoutTransfer {
+
+	private final List<CipherTransfer> _transfers;
+	private final int _bufferSize;
+	private final ExecutorService _executor;
+	private long _inBytes = 0L;
+
+	public FanoutTransfer(List<CipherTransfer> transfers, int bufferSize, ExecutorService executor) {
+		_transfers = transfers;
+		_bufferSize = bufferSize;
+		_executor = executor;
+	}
+
+	public long inBytes() {
+		return _inBytes;
+	}
+
+	public long outBytes() {
+		long total = 0L;
+		for (CipherTransfer transfer : _transfers) {
+			total += transfer.outBytes();
+		}
+		return total;
+	}
+
+	/**
+	 * Encrypts/decrypts the whole input stream into every output stream and finishes the Ciphers.
+	 */
+	public void transfer(InputStream in, List<OutputStream> outs) throws Exception {
+		byte[][] bufs = { new byte[_bufferSize], new byte[_bufferSize] };
+		int k = 0;
+		int n = in.readNBytes(bufs[k], 0, _bufferSize);
+		while (n > 0) {
+			byte[] buf = bufs[k];
+			int len = n;
+			List<Future<?>> pending = forEach((transfer, out) -> transfer.update(buf, 0, len, out), outs);
+			try {
+				n = in.readNBytes(bufs[1 - k], 0, _bufferSize);
+			} finally {
+				await(pending);
+			}
+			_inBytes += len;
+			k = 1 - k;
+		}
+		await(forEach((transfer, out) -> transfer.doFinal(out), outs));
+	}
+
+	private interface Step {
+		void run(CipherTransfer transfer, OutputStream out) throws Exception;
+	}
+
+	private List<Future<?>> forEach(Step step, List<OutputStream> outs) throws Exception {
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < _transfers.size(); i++) {
+			CipherTransfer transfer = _transfers.get(i);
+			OutputStream out = outs.get(i);
+			if (_executor != null) {
+				futures.add(_executor.submit(() -> {
+					step.run(transfer, out);
+					return null;
+				}));
+			} else {
+				step.run(transfer, out);
+			}
+		}
+		return futures;
+	}
+
+	/**
+	 * Waits for all the steps, so that none is still running when the first failure is thrown.
+	 */
+	private static void await(List<Future<?>> futures) throws Exception {
+		Exception failure = null;
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+}
@@ -0,0 +1,387 @@
+package com.hideakin.mycrypto;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Persistent index of the files processed by an incremental run, kept as a sorted array of fixed-size records.
+ *
+ * Layout:
+ *   header : magic "MYCI" (4) | version (1) | reserved (3) | number of records (8, big-endian)
+ *   record : path key (16) | size (8) | mtime (8) | parameters (16) | content hash (16) | output size (8) | output hash (16)
+ *
+ * Records are sorted by the path key, a truncated SHA-256 of the relative path,
+ * and looked up by binary search in memory-mapped windows of the file,
+ * so that the index of tens of millions of files is neither read nor held on the heap.
+ * A new index is written by Writer, which sorts the records in bounded runs and merges them.
+ * Hashes are SHA-256 truncated to 16 bytes.
+ */
+public class IncrementalIndex implements Closeable {
+
+	public static final int HASH_LENGTH = 16;
+	public static final int RECORD_LENGTH = 88;
+	private static final int HEADER_LENGTH = 16;
+	private static final byte[] MAGIC = { 'M', 'Y', 'C', 'I' };
+	private static final byte VERSION = 1;
+	private static final int WINDOW_SHIFT = 24;
+	private static final long WINDOW_RECORDS = 1L << WINDOW_SHIFT;
+	private static final int RUN_RECORDS = 1 << 16;
+
+	public static class Entry {
+
+		public final byte[] key;
+		public final long size;
+		public final long mtime;
+		public final byte[] parameters;
+		public final byte[] content;
+		public final long outputSize;
+		public final byte[] output;
+
+		public Entry(byte[] key, long size, long mtime, byte[] parameters, byte[] content, long outputSize, byte[] output) {
+			this.key = key;
+			this.size = size;
+			this.mtime = mtime;
+			this.parameters = parameters;
+			this.content = content;
+			this.outputSize = outputSize;
+			this.output = output;
+		}
+
+		public Entry withMtime(long value) {
+			return new Entry(key, size, value, parameters, content, outputSize, output);
+		}
+
+	}
+
+	private final FileChannel _channel;
+	private final long _count;
+	private final MappedByteBuffer[] _windows;
+
+	private IncrementalIndex(FileChannel channel, long count, MappedByteBuffer[] windows) {
+		_channel = channel;
+		_count = count;
+		_windows = windows;
+	}
+
+	/**
+	 * Opens the index at the given path, or returns an empty one if there is no file yet.
+	 */
+	public static IncrementalIndex open(Path path) throws IOException {
+		if (!Files.exists(path)) {
+			return new IncrementalIndex(null, 0L, new MappedByteBuffer[0]);
+		}
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+			while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+				// keeps reading
+			}
+			header.flip();
+			byte[] magic = new byte[MAGIC.length];
+			if (header.remaining() < HEADER_LENGTH || !Arrays.equals(MAGIC, get(header, magic)) || header.get() != VERSION) {
+				throw new RuntimeException(String.format("Not an index file: %s", path));
+			}
+			header.position(8);
+			long count = header.getLong();
+			if (count < 0 || channel.size() != HEADER_LENGTH + count * RECORD_LENGTH) {
+				throw new RuntimeException(String.format("Index file is corrupted: %s", path));
+			}
+			MappedByteBuffer[] windows = new MappedByteBuffer[(int)((count + WINDOW_RECORDS - 1) / WINDOW_RECORDS)];
+			for (int i = 0; i < windows.length; i++) {
+				long first = i * WINDOW_RECORDS;
+				long records = Math.min(WINDOW_RECORDS, count - first);
+				windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_LENGTH + first * RECORD_LENGTH, records * RECORD_LENGTH);
+			}
+			return new IncrementalIndex(channel, count, windows);
+		} catch (Exception e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private static byte[] get(ByteBuffer buf, byte[] dst) {
+		buf.get(dst);
+		return dst;
+	}
+
+	public long count() {
+		return _count;
+	}
+
+	/**
+	 * Returns the record of the given path key, or null.
+	 */
+	public Entry find(byte[] key) {
+		long k0 = ByteBuffer.wrap(key).getLong(0);
+		long k1 = ByteBuffer.wrap(key).getLong(8);
+		long low = 0;
+		long high = _count - 1;
+		while (low <= high) {
+			long mid = (low + high) >>> 1;
+			ByteBuffer window = _windows[(int)(mid >>> WINDOW_SHIFT)];
+			int offset = (int)(mid & (WINDOW_RECORDS - 1)) * RECORD_LENGTH;
+			int c = Long.compareUnsigned(window.getLong(offset), k0);
+			if (c == 0) {
+				c = Long.compareUnsigned(window.getLong(offset + 8), k1);
+			}
+			if (c < 0) {
+				low = mid + 1;
+			} else if (c > 0) {
+				high = mid - 1;
+			} else {
+				return read(window, offset);
+			}
+		}
+		return null;
+	}
+
+	private static Entry read(ByteBuffer window, int offset) {
+		ByteBuffer buf = window.duplicate();
+		buf.position(offset);
+		byte[] key = get(buf, new byte[HASH_LENGTH]);
+		long size = buf.getLong();
+		long mtime = buf.getLong();
+		byte[] parameters = get(buf, new byte[HASH_LENGTH]);
+		byte[] content = get(buf, new byte[HASH_LENGTH]);
+		long outputSize = buf.getLong();
+		byte[] output = get(buf, new byte[HASH_LENGTH]);
+		return new Entry(key, size, mtime, parameters, content, outputSize, output);
+	}
+
+	private static void write(OutputStream out, ByteBuffer buf, Entry entry) throws IOException {
+		buf.clear();
+		buf.put(entry.key).putLong(entry.size).putLong(entry.mtime).put(entry.parameters).put(entry.content)
+				.putLong(entry.outputSize).put(entry.output);
+		out.write(buf.array(), 0, RECORD_LENGTH);
+	}
+
+	private static int compare(Entry a, Entry b) {
+		return Arrays.compareUnsigned(a.key, b.key);
+	}
+
+	/**
+	 * Writes a new index from records added in any order, from any thread.
+	 * At most a run of records is held on the heap; full runs are sorted and spilled to temporary files
+	 * beside the index, and commit() merges them into the index through a temporary file.
+	 */
+	public static class Writer implements Closeable {
+
+		private final Path _path;
+		private final int _runRecords;
+		private final List<Entry> _run = new ArrayList<>();
+		private final List<Path> _runPaths = new ArrayList<>();
+		private long _count = 0L;
+
+		public Writer(Path path) {
+			this(path, RUN_RECORDS);
+		}
+
+		Writer(Path path, int runRecords) {
+			_path = path.toAbsolutePath();
+			_runRecords = runRecords;
+		}
+
+		public synchronized void add(Entry entry) throws IOException {
+			_run.add(entry);
+			_count++;
+			if (_run.size() >= _runRecords) {
+				Path runPath = Files.createTempFile(_path.getParent(), _path.getFileName() + ".", ".run");
+				_runPaths.add(runPath);
+				try (OutputStream out = newOutputStream(runPath, StandardOpenOption.WRITE)) {
+					writeRun(out);
+				}
+				_run.clear();
+			}
+		}
+
+		private void writeRun(OutputStream out) throws IOException {
+			_run.sort(IncrementalIndex::compare);
+			ByteBuffer buf = ByteBuffer.allocate(RECORD_LENGTH);
+			for (Entry entry : _run) {
+				write(out, buf, entry);
+			}
+		}
+
+		/**
+		 * Replaces the index at the path with the records added so far.
+		 */
+		public synchronized void commit() throws IOException {
+			_run.sort(IncrementalIndex::compare);
+			Path tmpPath = Paths.get(String.format("%s.%d", _path, System.currentTimeMillis()));
+			List<InputStream> inputs = new ArrayList<>();
+			try {
+				try (OutputStream out = newOutputStream(tmpPath, StandardOpenOption.CREATE_NEW)) {
+					ByteBuffer buf = ByteBuffer.allocate(Math.max(HEADER_LENGTH, RECORD_LENGTH));
+					buf.put(MAGIC).put(VERSION).put(new byte[3]).putLong(_count);
+					out.write(buf.array(), 0, HEADER_LENGTH);
+					PriorityQueue<Cursor> queue = new PriorityQueue<>((a, b) -> compare(a._head, b._head));
+					Cursor.offer(queue, _run.iterator());
+					for (Path runPath : _runPaths) {
+						InputStream in = new BufferedInputStream(Files.newInputStream(runPath), 64 * 1024);
+						inputs.add(in);
+						Cursor.offer(queue, new RunIterator(in));
+					}
+					Cursor cursor;
+					while ((cursor = queue.poll()) != null) {
+						write(out, buf, cursor._head);
+						Cursor.offer(queue, cursor._rest);
+					}
+				}
+				try (FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.WRITE)) {
+					channel.force(true);
+				}
+				Files.move(tmpPath, _path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				for (InputStream in : inputs) {
+					in.close();
+				}
+				Files.deleteIfExists(tmpPath);
+			}
+		}
+
+		private static OutputStream newOutputStream(Path path, StandardOpenOption option) throws IOException {
+			return new BufferedOutputStream(Files.newOutputStream(path, option), 1024 * 1024);
+		}
+
+		/**
+		 * Deletes the spilled runs.
+		 */
+		@Override
+		public synchronized void close() throws IOException {
+			for (Path runPath : _runPaths) {
+				Files.deleteIfExists(runPath);
+			}
+			_runPaths.clear();
+			_run.clear();
+		}
+
+	}
+
+	/**
+	 * The smallest record not yet merged from a sorted run, and the rest of the run.
+	 */
+	private static class Cursor {
+
+		private final Entry _head;
+		private final Iterator<Entry> _rest;
+
+		private Cursor(Entry head, Iterator<Entry> rest) {
+			_head = head;
+			_rest = rest;
+		}
+
+		private static void offer(PriorityQueue<Cursor> queue, Iterator<Entry> run) {
+			if (run.hasNext()) {
+				queue.add(new Cursor(run.next(), run));
+			}
+		}
+
+	}
+
+	/**
+	 * Reads back the records of a spilled run.
+	 */
+	private static class RunIterator implements Iterator<Entry> {
+
+		private final InputStream _in;
+		private final byte[] _buf = new byte[RECORD_LENGTH];
+		private Entry _next;
+
+		private RunIterator(InputStream in) {
+			_in = in;
+			_next = readNext();
+		}
+
+		private Entry readNext() {
+			try {
+				int n = _in.readNBytes(_buf, 0, RECORD_LENGTH);
+				if (n == 0) {
+					return null;
+				} else if (n < RECORD_LENGTH) {
+					throw new RuntimeException("Index run is truncated.");
+				}
+				return read(ByteBuffer.wrap(_buf), 0);
+			} catch (IOException e) {
+				throw new RuntimeException(e.getMessage());
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return _next != null;
+		}
+
+		@Override
+		public Entry next() {
+			if (_next == null) {
+				throw new NoSuchElementException();
+			}
+			Entry entry = _next;
+			_next = readNext();
+			return entry;
+		}
+
+	}
+
+	/**
+	 * Returns the key of a path relative to the input directory, with '/' as the separator.
+	 */
+	public static byte[] keyOf(String relativePath) {
+		return truncate(sha256().digest(relativePath.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Returns the truncated SHA-256 of the content of the file.
+	 */
+	public static byte[] contentHash(Path path) throws IOException {
+		MessageDigest md = sha256();
+		byte[] buf = new byte[64 * 1024];
+		try (InputStream in = Files.newInputStream(path)) {
+			int n;
+			while ((n = in.read(buf)) >= 0) {
+				md.update(buf, 0, n);
+			}
+		}
+		return truncate(md.digest());
+	}
+
+	public static byte[] truncate(byte[] hash) {
+		return Arrays.copyOf(hash, HASH_LENGTH);
+	}
+
+	public static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (Exception e) {
+			throw new RuntimeException(e.getMessage());
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (_channel != null) {
+			_channel.close();
+		}
+	}
+
+}
@@ -0,0 +1,129 @@
+package com.hideakin.mycrypto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs independent jobs on a worker pool and reports the result of each job separately.
+ * A failing job does not affect the others.
+ *
+ * The number of jobs in flight can be capped; submit() then blocks until a running job finishes,
+ * so that a huge list of jobs does not turn into as many queued tasks or open files.
+ */
+public class JobRunner {
+
+	public interface Job {
+
+		/**
+		 * Runs the job, printing its messages to the given stream.
+		 */
+		void run(PrintStream info) throws Exception;
+
+	}
+
+	private final ExecutorService _executor;
+	private final PrintStream _out;
+	private final Semaphore _inFlight;
+	private final AtomicInteger _succeeded = new AtomicInteger();
+	private final AtomicInteger _failed = new AtomicInteger();
+
+	public JobRunner(int threads, PrintStream out) {
+		this(Executors.newFixedThreadPool(threads), out);
+	}
+
+	public JobRunner(ExecutorService executor, PrintStream out) {
+		this(executor, out, 0);
+	}
+
+	/**
+	 * maxInFlight of zero means no limit.
+	 */
+	public JobRunner(ExecutorService executor, PrintStream out, int maxInFlight) {
+		_executor = executor;
+		_out = out;
+		_inFlight = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+	}
+
+	/**
+	 * Returns an executor that starts a virtual thread per task,
+	 * or null if the runtime does not have virtual threads (before Java 21).
+	 */
+	public static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	public int succeeded() {
+		return _succeeded.get();
+	}
+
+	public int failed() {
+		return _failed.get();
+	}
+
+	public void submit(String label, Job job) {
+		if (_inFlight != null) {
+			_inFlight.acquireUninterruptibly();
+		}
+		_executor.execute(() -> {
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			PrintStream info = new PrintStream(buf, true);
+			String status;
+			try {
+				job.run(info);
+				_succeeded.incrementAndGet();
+				status = "OK";
+			} catch (Throwable t) {
+				_failed.incrementAndGet();
+				status = "ERROR";
+				info.printf("ERROR: %s\n", t.getMessage());
+				while ((t = t.getCause()) != null) {
+					info.printf("       %s\n", t.getMessage());
+				}
+			} finally {
+				if (_inFlight != null) {
+					_inFlight.release();
+				}
+			}
+			report(label, status, buf.toString());
+		});
+	}
+
+	private void report(String label, String status, String messages) {
+		StringBuilder s = new StringBuilder();
+		s.append(String.format("[%s] %s\n", status, label));
+		for (String line : messages.split("\n")) {
+			if (!line.isEmpty()) {
+				s.append("  ").append(line).append('\n');
+			}
+		}
+		synchronized (_out) {
+			_out.print(s);
+			_out.flush();
+		}
+	}
+
+	/**
+	 * Waits for all the submitted jobs to finish and prints the summary.
+	 * Throws if any job failed.
+	 */
+	public void await() throws Exception {
+		_executor.shutdown();
+		while (!_executor.awaitTermination(1, TimeUnit.MINUTES)) {
+			// keeps waiting
+		}
+		_out.printf("%d succeeded, %d failed\n", succeeded(), failed());
+		if (failed() > 0) {
+			throw new RuntimeException(String.format("%d of %d jobs failed.", failed(), succeeded() + failed()));
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+package com.hideakin.mycrypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Header that precedes the ciphertext when the key is derived from a phrase with PBKDF2.
+ *
+ * Layout:
+ *   magic (8) | version (1) | salt length (1) | IV/nonce length (1) | reserved (1) | iterations (4, big-endian) | salt | IV/nonce
+ *
+ * The salt and the iteration count are what decryption needs to derive the same key again.
+ * The IV or nonce is random for every encryption, so that a salt, and thus a key, can be shared by many files.
+ */
+public class KdfHeader {
+
+	public static final byte[] MAGIC = { (byte)0x89, 'M', 'Y', 'C', 'K', '\r', '\n', 0x1A };
+	public static final int SALT_LENGTH = 16;
+	public static final int ITERATIONS_MAX = 10000000;
+	private static final int PREFIX_LENGTH = 16;
+	private static final int SALT_LENGTH_MIN = 8;
+	private static final byte VERSION = 1;
+
+	private final int _iterations;
+	private final byte[] _salt;
+	private final byte[] _iv;
+
+	public KdfHeader(int iterations, byte[] salt, byte[] iv) {
+		_iterations = iterations;
+		_salt = salt;
+		_iv = iv;
+	}
+
+	public int iterations() {
+		return _iterations;
+	}
+
+	public byte[] salt() {
+		return _salt;
+	}
+
+	public byte[] iv() {
+		return _iv;
+	}
+
+	public int length() {
+		return PREFIX_LENGTH + _salt.length + _iv.length;
+	}
+
+	public void write(OutputStream out) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(length());
+		buf.put(MAGIC).put(VERSION).put((byte)_salt.length).put((byte)_iv.length).put((byte)0).putInt(_iterations);
+		buf.put(_salt).put(_iv);
+		out.write(buf.array());
+	}
+
+	public static KdfHeader read(InputStream in) throws IOException {
+		ByteBuffer prefix = ByteBuffer.wrap(in.readNBytes(PREFIX_LENGTH));
+		if (prefix.capacity() < PREFIX_LENGTH) {
+			throw new RuntimeException("Key derivation header is truncated.");
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (prefix.get() != MAGIC[i]) {
+				throw new RuntimeException("Key derivation header is not found.");
+			}
+		}
+		if (prefix.get() != VERSION) {
+			throw new RuntimeException("Key derivation header has an unsupported version.");
+		}
+		int saltLength = prefix.get() & 0xFF;
+		int ivLength = prefix.get() & 0xFF;
+		prefix.get();
+		int iterations = prefix.getInt();
+		if (saltLength < SALT_LENGTH_MIN || iterations < 1 || ITERATIONS_MAX < iterations) {
+			throw new RuntimeException("Key derivation header is corrupted.");
+		}
+		byte[] salt = in.readNBytes(saltLength);
+		byte[] iv = in.readNBytes(ivLength);
+		if (salt.length < saltLength || iv.length < ivLength) {
+			throw new RuntimeException("Key derivation header is truncated.");
+		}
+		return new KdfHeader(iterations, salt, iv);
+	}
+
+}
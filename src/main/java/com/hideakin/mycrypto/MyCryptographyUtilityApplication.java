@@ -1,19 +1,43 @@
 package com.hideakin.mycrypto;
 
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidAlgorithmParameterException;
 import java.security.MessageDigest;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.function.Supplier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
 
 import javax.crypto.Cipher;
+import javax.crypto.Mac;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
@@ -21,8 +45,22 @@ import javax.crypto.spec.SecretKeySpec;
 import com.hideakin.mycrypto.constant.Algorithm;
 import com.hideakin.mycrypto.constant.OperationalMode;
 import com.hideakin.mycrypto.constant.Padding;
+import com.hideakin.mycrypto.constant.Transformation;
+import com.hideakin.mycrypto.jfr.CipherInitEvent;
+import com.hideakin.mycrypto.jfr.CommitEvent;
+import com.hideakin.mycrypto.jfr.Events;
+import com.hideakin.mycrypto.jfr.JobEvent;
+import com.hideakin.mycrypto.jfr.OpenEvent;
+import com.hideakin.util.Armor;
+import com.hideakin.util.ArmorOutputStream;
+import com.hideakin.util.BlockInflaterOutputStream;
 import com.hideakin.util.CommandLineParameters;
+import com.hideakin.util.CountingInputStream;
+import com.hideakin.util.CountingOutputStream;
+import com.hideakin.util.Digests;
 import com.hideakin.util.HexString;
+import com.hideakin.util.MappedBuffers;
+import com.hideakin.util.ParallelDeflaterOutputStream;
 import com.hideakin.util.TextHelpers;
 
 public class MyCryptographyUtilityApplication {
@@ -31,9 +69,6 @@ public class MyCryptographyUtilityApplication {
 
 	public static final String DESCRIPTION = "My Cryptography Utility version %s\n";
 
-	private static final int AES_256_KEY_LENGTH = 256 / 8;
-	private static final int AES_192_KEY_LENGTH = 192 / 8;
-	private static final int AES_128_KEY_LENGTH = 128 / 8;
 	private static final int AES_IV_LENGTH = 16;
 	private static final int AES_GCM_NONCE_LENGTH = 12;
 	private static final int AES_GCM_TAG_LENGTH_MIN = 12;
@@ -42,15 +77,71 @@ public class MyCryptographyUtilityApplication {
 	private static final int FLAG_OVERWRITE = 1 << 0;
 	private static final int FLAG_IN_TO_CLOSE = 1 << 1;
 	private static final int FLAG_OUT_TO_CLOSE = 1 << 2;
+	private static final int FLAG_SEGMENTED = 1 << 3;
+	private static final int FLAG_MAPPED = 1 << 4;
+	private static final int FLAG_RECURSIVE = 1 << 5;
+	private static final int FLAG_SERVER = 1 << 6;
+	private static final int FLAG_PIPELINED = 1 << 7;
+	private static final int FLAG_VIRTUAL_THREADS = 1 << 8;
+	private static final int FLAG_STATS = 1 << 9;
+	private static final int FLAG_APPEND = 1 << 10;
+	private static final int FLAG_COMPRESSED = 1 << 11;
+	private static final int FLAG_PBKDF2 = 1 << 12;
+	private static final int FLAG_VERIFY = 1 << 13;
+	private static final int FLAG_SPEED = 1 << 14;
+	private static final int FLAG_SHARE_KEY = 1 << 15;
+	private static final int FLAG_KDF = 1 << 16;
+	private static final int FLAG_HELP = 1 << 17;
+
+	private static final int MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private static final int BUFFER_SIZE_AUTO = -1;
+	private static final int BUFFER_SIZE_PROBE = -2;
+	private static final int BUFFER_SIZE_MIN = 16;
+	private static final int BUFFER_SIZE_MAX = 64 * 1024 * 1024;
+	private static final int AUTO_BUFFER_SIZE_MAX = 4 * 1024 * 1024;
+	private static final int PIPE_BUFFER_SIZE = 64 * 1024;
+	private static final int DEFAULT_BLOCK_SIZE = 4096;
+	private static final int PROBE_SIZE_MIN = 16 * 1024;
+	private static final int PROBE_REGION = 2 * 1024 * 1024;
+
+	private static final int DEFAULT_MAX_OPEN = 256;
+
+	private static final int PBKDF2_ITERATIONS_DEFAULT = 600000;
+
+	private static final int SPEED_MILLIS = 1000;
+	private static final int PROVIDER_PROBE_MILLIS = 100;
+	private static final int PROVIDER_PROBE_SIZE = 16 * 1024;
+	private static final String PROVIDER_FASTEST = "fastest";
+
+	private static final SecureRandom RANDOM = new SecureRandom();
 
 	private Algorithm _algorithm = Algorithm.UNDEFINED;
 	private OperationalMode _mode = OperationalMode.UNDEFINED;
 	private Padding _padding = Padding.UNDEFINED;
+	private String _transformation;
 	private int _keyLength = 0;
 	private int _ivLength = 0;
 	private int _nonceLength = 0;
 	private int _tagLength = 0;
+	private int _segmentSize = 0;
+	private int _bufferSize = 0;
+	private int _compressionLevel = Deflater.DEFAULT_COMPRESSION;
+	private Armor _armor;
+	private String _provider;
+	private Provider _cipherProvider;
+	private int _mapWindowSize = MAP_WINDOW_SIZE;
+	private DerivedKeyCache.Salts _salts;
+	private List<String> _digestNames;
+	private Digests _inDigests;
+	private Digests _outDigests;
+	private final List<byte[]> _fanoutKeys = new ArrayList<>();
+	private final List<String> _fanoutPaths = new ArrayList<>();
+	private long _rangeStart = -1L;
+	private long _rangeLength = 0L;
 	private byte[] _key;
+	private String _keyPhrase;
+	private int _iterations = 0;
 	private byte[] _iv;
 	private byte[] _nonce;
 	private byte[] _aad; // Additional Authenticated Data
@@ -58,19 +149,21 @@ public class MyCryptographyUtilityApplication {
 	private String _outFileName;
 	private Path _outPath;
 	private Path _tmpPath;
+	private Cipher _cipher;
+	private PhaseStats _stats = PhaseStats.DISABLED;
+	private long _inBytes = 0L;
+	private long _outBytes = 0L;
 	private int _operation = 0;
 	private int _flags = 0;
+	private String _batchFileName;
+	private String _socketFileName;
+	private String _indexFileName;
+	private String[] _clientArgs;
+	private Path _workingDirectory;
+	private int _threads = 0;
+	private int _maxOpen = 0;
+	private PrintStream _console = System.out;
 	private PrintStream _info;
-	@SuppressWarnings("serial")
-	private final Map<OperationalMode, Supplier<Cipher>> _cipherSupplier = new HashMap<OperationalMode, Supplier<Cipher>>() {
-		{
-			put(OperationalMode.CBC, () -> { return getCipherWithKeyAndIv(); });
-			put(OperationalMode.ECB, () -> { return getCipherWithKey(); });
-			put(OperationalMode.CFB8, () -> { return getCipherWithKeyAndIv(); });
-			put(OperationalMode.OFB8, () -> { return getCipherWithKeyAndIv(); });
-			put(OperationalMode.GCM, () -> { return getCipherWithGcmParameterSpec(); });
-		}
-	};
 
 	public MyCryptographyUtilityApplication() {
 	}
@@ -82,8 +175,9 @@ public class MyCryptographyUtilityApplication {
 		_algorithm = algorithm;
 		_mode = mode;
 		_padding = padding;
+		_transformation = algorithm.label() + "/" + mode.label() + "/" + padding.label();
 		_keyLength = keyLength;
-		if (mode == OperationalMode.CBC || mode == OperationalMode.CFB8 || mode == OperationalMode.OFB8) {
+		if (mode == OperationalMode.CBC || mode == OperationalMode.CFB8 || mode == OperationalMode.OFB8 || mode == OperationalMode.CTR) {
 			_ivLength = AES_IV_LENGTH;
 		} else if (mode == OperationalMode.GCM) {
 			_nonceLength = AES_GCM_NONCE_LENGTH;
@@ -102,10 +196,154 @@ public class MyCryptographyUtilityApplication {
 		}
 	}
 
+	private boolean hasSegmentSize() {
+		return _segmentSize != 0;
+	}
+
+	private void setSegmentSize(int value) {
+		if (SegmentedGcm.MIN_SEGMENT_SIZE <= value && value <= SegmentedGcm.MAX_SEGMENT_SIZE) {
+			_segmentSize = value;
+		} else {
+			throw new RuntimeException("Segment size is out of range.");
+		}
+	}
+
+	private void setCompression(String codec) {
+		if ("deflate".equalsIgnoreCase(codec)) {
+			_compressionLevel = Deflater.DEFAULT_COMPRESSION;
+		} else if ("fast".equalsIgnoreCase(codec)) {
+			_compressionLevel = Deflater.BEST_SPEED;
+		} else {
+			throw new RuntimeException(String.format("Unknown compression: %s", codec));
+		}
+		setFlags(FLAG_COMPRESSED);
+	}
+
+	private boolean hasFanout() {
+		return !_fanoutKeys.isEmpty();
+	}
+
+	private void addFanout(byte[] key, String fileName) {
+		if (_fanoutPaths.contains(fileName)) {
+			throw new RuntimeException(String.format("Fan-out output file is specified more than once: %s", fileName));
+		}
+		_fanoutKeys.add(key);
+		_fanoutPaths.add(fileName);
+	}
+
+	private boolean hasDigests() {
+		return _digestNames != null;
+	}
+
+	private void setDigests(List<String> names) {
+		_digestNames = names;
+	}
+
+	/**
+	 * Returns the input stream, passing its bytes through the digests of -digest if any.
+	 */
+	private InputStream teeInput(InputStream in) {
+		if (hasDigests()) {
+			_inDigests = new Digests(_digestNames);
+			return _inDigests.tee(in);
+		}
+		return in;
+	}
+
+	/**
+	 * Returns the output stream, passing its bytes through the digests of -digest if any.
+	 */
+	private OutputStream teeOutput(OutputStream out) {
+		if (hasDigests()) {
+			_outDigests = new Digests(_digestNames);
+			return _outDigests.tee(out);
+		}
+		return out;
+	}
+
+	private boolean hasProvider() {
+		return _provider != null;
+	}
+
+	private void setProvider(String name) {
+		if (!PROVIDER_FASTEST.equalsIgnoreCase(name)) {
+			CipherProviders.provider(name);
+		}
+		_provider = name;
+	}
+
+	private boolean hasArmor() {
+		return _armor != null;
+	}
+
+	private void setArmor(Armor value) {
+		_armor = value;
+	}
+
+	private boolean hasRange() {
+		return _rangeStart >= 0;
+	}
+
+	private void setRange(String value) {
+		String[] range = value.split(":", -1);
+		try {
+			if (range.length == 2) {
+				long start = Long.parseLong(range[0]);
+				long length = Long.parseLong(range[1]);
+				if (start >= 0 && length >= 0) {
+					_rangeStart = start;
+					_rangeLength = length;
+					return;
+				}
+			}
+		} catch (NumberFormatException e) {
+			// falls through
+		}
+		throw new RuntimeException(String.format("Range is malformed: %s", value));
+	}
+
+	private boolean hasBufferSize() {
+		return _bufferSize != 0;
+	}
+
+	private void setBufferSize(int value) {
+		if (value == BUFFER_SIZE_AUTO || value == BUFFER_SIZE_PROBE || (BUFFER_SIZE_MIN <= value && value <= BUFFER_SIZE_MAX)) {
+			_bufferSize = value;
+		} else {
+			throw new RuntimeException("Buffer size is out of range.");
+		}
+	}
+
 	private boolean hasKey() {
 		return _key != null;
 	}
 
+	private void setKeyPhrase(String value) {
+		_keyPhrase = value;
+		_key = generate32Bytes(value);
+	}
+
+	private void setKdf(String name) {
+		if ("pbkdf2".equalsIgnoreCase(name)) {
+			setFlags(FLAG_PBKDF2);
+		} else if (!"sha256".equalsIgnoreCase(name)) {
+			throw new RuntimeException(String.format("Unknown key derivation function: %s", name));
+		}
+		setFlags(FLAG_KDF);
+	}
+
+	private boolean hasIterations() {
+		return _iterations != 0;
+	}
+
+	private void setIterations(int value) {
+		if (0 < value && value <= KdfHeader.ITERATIONS_MAX) {
+			_iterations = value;
+		} else {
+			throw new RuntimeException("Number of iterations is out of range.");
+		}
+	}
+
 	private boolean hasIv() {
 		return _iv != null;
 	}
@@ -143,6 +381,110 @@ public class MyCryptographyUtilityApplication {
 		_outFileName = fileName;
 	}
 	
+	private boolean isBatch() {
+		return _batchFileName != null;
+	}
+
+	private void setBatchPath(String fileName) {
+		_batchFileName = fileName;
+	}
+
+	private boolean isIncremental() {
+		return _indexFileName != null;
+	}
+
+	private void setIndexPath(String fileName) {
+		_indexFileName = fileName;
+	}
+
+	private boolean hasSocketPath() {
+		return _socketFileName != null;
+	}
+
+	private void setSocketPath(String fileName) {
+		_socketFileName = fileName;
+	}
+
+	private boolean hasThreads() {
+		return _threads != 0;
+	}
+
+	private void setThreads(int value) {
+		if (value > 0) {
+			_threads = value;
+		} else {
+			throw new RuntimeException("Number of threads is out of range.");
+		}
+	}
+
+	private boolean hasMaxOpen() {
+		return _maxOpen != 0;
+	}
+
+	/**
+	 * Sets the size of the windows that -mmap maps at a time; tests make it small to cross windows cheaply.
+	 */
+	void setMapWindowSize(int value) {
+		_mapWindowSize = value;
+	}
+
+	private void setMaxOpen(int value) {
+		if (value > 0) {
+			_maxOpen = value;
+		} else {
+			throw new RuntimeException("Maximum number of open files is out of range.");
+		}
+	}
+
+	/**
+	 * Takes over the parameters that this job does not specify by itself from the given defaults.
+	 */
+	private void inherit(MyCryptographyUtilityApplication defaults) {
+		if (_algorithm == Algorithm.UNDEFINED && defaults._algorithm != Algorithm.UNDEFINED) {
+			setTransformation(defaults._algorithm, defaults._mode, defaults._padding, defaults._keyLength);
+		}
+		if (!hasTagLength()) {
+			_tagLength = defaults._tagLength;
+		}
+		if (!hasSegmentSize()) {
+			_segmentSize = defaults._segmentSize;
+		}
+		if (!hasBufferSize()) {
+			_bufferSize = defaults._bufferSize;
+		}
+		if (!hasKey() && (!defaults.checkFlags(FLAG_SERVER) || defaults.checkFlags(FLAG_SHARE_KEY))) {
+			_key = defaults._key;
+			_keyPhrase = defaults._keyPhrase;
+		}
+		if (!hasIterations()) {
+			_iterations = defaults._iterations;
+		}
+		if (!hasArmor()) {
+			_armor = defaults._armor;
+		}
+		if (!hasProvider()) {
+			_provider = defaults._provider;
+			_cipherProvider = defaults._cipherProvider;
+		}
+		if (!hasDigests()) {
+			_digestNames = defaults._digestNames;
+		}
+		_salts = defaults._salts;
+		if (!hasIv()) {
+			_iv = defaults._iv;
+		}
+		if (!hasNonce()) {
+			_nonce = defaults._nonce;
+		}
+		if (!hasAad()) {
+			_aad = defaults._aad;
+		}
+		if (!checkFlags(FLAG_COMPRESSED)) {
+			_compressionLevel = defaults._compressionLevel;
+		}
+		setFlags(defaults._flags & (FLAG_SEGMENTED | FLAG_MAPPED | FLAG_PIPELINED | FLAG_STATS | FLAG_COMPRESSED | FLAG_PBKDF2));
+	}
+
 	private void setFlags(int value) {
 		_flags |= value;
 	}
@@ -156,43 +498,957 @@ public class MyCryptographyUtilityApplication {
 	}
 
 	public void run() throws Exception {
+		if (_clientArgs != null) {
+			runClient();
+			return;
+		} else if (checkFlags(FLAG_SERVER)) {
+			runServer();
+			return;
+		} else if (checkFlags(FLAG_SPEED)) {
+			runSpeed();
+			return;
+		} else if (isBatch()) {
+			runBatch();
+			return;
+		} else if (checkFlags(FLAG_RECURSIVE)) {
+			runRecursive();
+			return;
+		}
 		verifyParameters();
+		if (hasProvider()) {
+			selectProvider();
+		}
+		if (checkFlags(FLAG_STATS)) {
+			_stats = new PhaseStats();
+		}
+		JobEvent event = Events.enabled() ? new JobEvent() : null;
+		if (event != null) {
+			event.begin();
+		}
+		try {
+			if ((checkFlags(FLAG_MAPPED) || hasRange()) && isCompressedInput()) {
+				throw new RuntimeException("Compressed input cannot be decrypted with memory-mapped I/O or range.");
+			} else if (hasRange()) {
+				runRange();
+			} else if (hasFanout()) {
+				runFanout();
+			} else if (checkFlags(FLAG_APPEND) && Files.exists(resolvePath(_outFileName))) {
+				runAppend();
+			} else if (checkFlags(FLAG_SEGMENTED)) {
+				runSegmented();
+			} else if (checkFlags(FLAG_MAPPED)) {
+				runMapped();
+			} else if (isParallelizable()) {
+				runParallel();
+			} else {
+				runStream();
+			}
+			if (checkFlags(FLAG_VERIFY)) {
+				_info.printf("Verified: %s\n", _inFileName);
+			}
+			if (event != null) {
+				event.succeeded = true;
+			}
+		} finally {
+			if (event != null) {
+				event.end();
+			}
+			if (event != null && event.shouldCommit()) {
+				event.transformation = transformation();
+				event.operation = operationLabel();
+				event.input = _inFileName;
+				event.output = _outFileName;
+				event.inBytes = _inBytes;
+				event.outBytes = _outBytes;
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * Measures the throughput of every transformation with every provider that supports it, like "openssl speed".
+	 * A transformation, -provider and -bufsize narrow down what is measured.
+	 */
+	private void runSpeed() throws Exception {
+		SpeedTest test = new SpeedTest(SPEED_MILLIS);
+		int[] sizes = _bufferSize > 0 ? new int[] { _bufferSize } : SpeedTest.SIZES;
+		_console.printf("AES intrinsics: %s\n", SpeedTest.vmOption("UseAESIntrinsics"));
+		_console.printf("AES-CTR intrinsics: %s\n", SpeedTest.vmOption("UseAESCTRIntrinsics"));
+		_console.printf("GHASH intrinsics: %s\n", SpeedTest.vmOption("UseGHASHIntrinsics"));
+		StringBuilder header = new StringBuilder(String.format("%-12s %-12s", "type", "provider"));
+		for (int size : sizes) {
+			header.append(String.format(" %12s", String.format("%d bytes", size)));
+		}
+		_console.printf("%s\n", header);
+		for (Transformation t : Transformation.values()) {
+			if (_algorithm != Algorithm.UNDEFINED && (t.mode() != _mode || t.keyLength() != _keyLength)) {
+				continue;
+			}
+			for (Provider provider : CipherProviders.providersOf(t.jceName())) {
+				if (hasProvider() && !PROVIDER_FASTEST.equalsIgnoreCase(_provider) && !provider.getName().equals(_provider)) {
+					continue;
+				}
+				StringBuilder line = new StringBuilder(String.format("%-12s %-12s", t.label(), provider.getName()));
+				for (int size : sizes) {
+					line.append(String.format(Locale.ROOT, " %7.2f MB/s", test.measure(t, provider, size)));
+				}
+				_console.printf("%s\n", line);
+			}
+		}
+	}
+
+	/**
+	 * Resolves the provider given by -provider into the one that creates the Ciphers of this job.
+	 */
+	private void selectProvider() throws Exception {
+		if (!PROVIDER_FASTEST.equalsIgnoreCase(_provider)) {
+			_cipherProvider = CipherProviders.provider(_provider, transformation());
+			return;
+		}
+		for (Transformation t : Transformation.values()) {
+			if (t.mode() == _mode && t.keyLength() == _keyLength) {
+				int size = _bufferSize > 0 ? _bufferSize : PROVIDER_PROBE_SIZE;
+				_cipherProvider = CipherProviders.fastest(t, size, new SpeedTest(PROVIDER_PROBE_MILLIS));
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Encrypts the input for every -fanout recipient with its own key and output file, reading the input only once.
+	 * Each recipient is a job of its own for output handling, sharing the other parameters with this one.
+	 */
+	private void runFanout() throws Exception {
+		List<MyCryptographyUtilityApplication> recipients = new ArrayList<>();
+		List<OutputStream> outs = new ArrayList<>();
+		InputStream in = null;
+		ExecutorService executor = null;
+		try {
+			_stats.start();
+			in = teeInput(openInput());
+			_info = _console;
+			for (int i = 0; i < _fanoutKeys.size(); i++) {
+				MyCryptographyUtilityApplication recipient = new MyCryptographyUtilityApplication();
+				recipient._console = _console;
+				recipient.setKey(adjustLength(_fanoutKeys.get(i), _keyLength));
+				recipient.setInputPath(_operation, _inFileName);
+				recipient.setOutputPath(_fanoutPaths.get(i));
+				recipient.setFlags(_flags & FLAG_OVERWRITE);
+				recipient._workingDirectory = _workingDirectory;
+				recipient.inherit(this);
+				recipients.add(recipient);
+				outs.add(recipient.teeOutput(recipient.openOutput()));
+			}
+			_stats.lap("open");
+			int bufferSize = bufferSize();
+			List<CipherTransfer> transfers = new ArrayList<>();
+			for (MyCryptographyUtilityApplication recipient : recipients) {
+				recipient._info.printf("[%s]\n", recipient._outFileName);
+				transfers.add(new CipherTransfer(recipient.getCipher(), bufferSize));
+			}
+			int threads = Math.min(recipients.size(), hasThreads() ? _threads : Runtime.getRuntime().availableProcessors());
+			if (threads > 1) {
+				executor = Executors.newFixedThreadPool(threads);
+			}
+			_stats.lap("init");
+			FanoutTransfer fanout = new FanoutTransfer(transfers, bufferSize, executor);
+			fanout.transfer(in, outs);
+			_stats.lap("update");
+			_info.printf("%s in\n", TextHelpers.numberOfBytes(fanout.inBytes()));
+			if (_inDigests != null) {
+				_inDigests.print(_info, "in");
+			}
+			closeInput(in);
+			for (int i = 0; i < recipients.size(); i++) {
+				outs.get(i).flush();
+				_info.printf("%s out: %s\n", TextHelpers.numberOfBytes(transfers.get(i).outBytes()), _fanoutPaths.get(i));
+				if (recipients.get(i)._outDigests != null) {
+					recipients.get(i)._outDigests.print(_info, _fanoutPaths.get(i));
+				}
+				recipients.get(i).commitOutput(outs.get(i));
+			}
+			_stats.lap("commit");
+			complete(fanout.inBytes(), fanout.outBytes());
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+			closeInput(in);
+			for (int i = 0; i < recipients.size(); i++) {
+				MyCryptographyUtilityApplication recipient = recipients.get(i);
+				recipient.releaseCipher();
+				if (i < outs.size()) {
+					recipient.closeOutput(outs.get(i));
+				}
+				recipient.cleanup();
+			}
+		}
+	}
+
+	private void printDigests() {
+		if (_inDigests != null) {
+			_inDigests.print(_info, "in");
+		}
+		if (_outDigests != null) {
+			_outDigests.print(_info, "out");
+		}
+	}
+
+	private void runStream() throws Exception {
 		InputStream in = null;
 		OutputStream out = null;
 		try {
-			in = openInput();
-			out = openOutput();
+			_stats.start();
+			in = teeInput(openInput());
+			out = teeOutput(openOutput());
+			ArmorOutputStream armored = null;
+			if (hasArmor()) {
+				if (_operation == Cipher.ENCRYPT_MODE) {
+					out = armored = _armor.encoder(out);
+				} else {
+					in = _armor.decoder(in);
+				}
+			}
+			_stats.lap("open");
+			if (checkFlags(FLAG_PBKDF2)) {
+				deriveKey(in, out);
+			}
+			// the compression header goes in the clear ahead of the ciphertext, authenticated by GCM as AAD
+			BlockInflaterOutputStream inflater = null;
+			byte[] compressionHeader = null;
+			if (checkFlags(FLAG_COMPRESSED)) {
+				compressionHeader = ParallelDeflaterOutputStream.header(_compressionLevel, ParallelDeflaterOutputStream.DEFAULT_BLOCK_SIZE);
+				out.write(compressionHeader);
+			} else if (_operation == Cipher.DECRYPT_MODE) {
+				PushbackInputStream pushback = new PushbackInputStream(in, ParallelDeflaterOutputStream.HEADER_LENGTH);
+				byte[] head = pushback.readNBytes(ParallelDeflaterOutputStream.HEADER_LENGTH);
+				if (ParallelDeflaterOutputStream.isHeader(head, 0, head.length)) {
+					compressionHeader = head;
+					inflater = new BlockInflaterOutputStream(out, ParallelDeflaterOutputStream.blockSizeOf(head));
+				} else {
+					pushback.unread(head);
+				}
+				in = pushback;
+			}
 			Cipher cipher = getCipher();
-			long inBytes = 0L;
-			long outBytes = 0L;
-			byte[] buf = new byte[8192];
-			int n;
-			while ((n = in.read(buf)) >= 0) {
-				if (n > 0) {
-					inBytes += n;
-					byte[] result = cipher.update(buf, 0, n);
-					if (result != null) {
-						out.write(result);
-						outBytes += result.length;
+			if (compressionHeader != null && _mode == OperationalMode.GCM) {
+				cipher.updateAAD(compressionHeader);
+			}
+			int bufferSize = bufferSize();
+			_stats.lap("init");
+			long inBytes;
+			long outBytes;
+			OutputStream sink = inflater != null ? inflater : out;
+			if (checkFlags(FLAG_PIPELINED)) {
+				PipelinedTransfer transfer = new PipelinedTransfer(cipher, bufferSize, PipelinedTransfer.DEFAULT_SLOTS);
+				transfer.transfer(in, sink);
+				_stats.lap("update");
+				inBytes = transfer.inBytes();
+				outBytes = transfer.outBytes();
+				_info.printf("%s in\n", TextHelpers.numberOfBytes(inBytes));
+				closeInput(in);
+			} else if (checkFlags(FLAG_COMPRESSED)) {
+				CipherTransfer transfer = new CipherTransfer(cipher, bufferSize);
+				int threads = hasThreads() ? _threads : ForkJoinPool.getCommonPoolParallelism();
+				ParallelDeflaterOutputStream compressor = new ParallelDeflaterOutputStream(transfer.sink(out), _compressionLevel, ForkJoinPool.commonPool(), threads);
+				CountingInputStream plain = new CountingInputStream(in);
+				byte[] buf = new byte[bufferSize];
+				int n;
+				while ((n = plain.read(buf)) >= 0) {
+					compressor.write(buf, 0, n);
+				}
+				compressor.finish();
+				_stats.lap("update");
+				inBytes = plain.count();
+				_info.printf("%s in\n", TextHelpers.numberOfBytes(inBytes));
+				_info.printf("%s compressed\n", TextHelpers.numberOfBytes(transfer.inBytes()));
+				closeInput(in);
+				transfer.doFinal(out);
+				_stats.lap("doFinal");
+				outBytes = transfer.outBytes();
+			} else {
+				CipherTransfer transfer = new CipherTransfer(cipher, bufferSize);
+				transfer.update(in, sink);
+				_stats.lap("update");
+				_info.printf("%s in\n", TextHelpers.numberOfBytes(transfer.inBytes()));
+				closeInput(in);
+				transfer.doFinal(sink);
+				_stats.lap("doFinal");
+				inBytes = transfer.inBytes();
+				outBytes = transfer.outBytes();
+			}
+			if (inflater != null) {
+				inflater.finish();
+				_info.printf("%s compressed\n", TextHelpers.numberOfBytes(outBytes));
+				outBytes = inflater.count();
+			}
+			if (armored != null) {
+				armored.finish();
+			}
+			out.flush();
+			_stats.lap("flush");
+			_info.printf("%s out\n", TextHelpers.numberOfBytes(outBytes));
+			printDigests();
+			commitOutput(out);
+			_stats.lap("commit");
+			complete(inBytes, outBytes);
+		} finally {
+			releaseCipher();
+			closeInput(in);
+			closeOutput(out);
+		}
+	}
+
+	private void runBatch() throws Exception {
+		_salts = new DerivedKeyCache.Salts(DerivedKeyCache.CAPACITY);
+		JobRunner runner = newJobRunner(false);
+		try (BufferedReader reader = Files.newBufferedReader(resolvePath(_batchFileName), StandardCharsets.UTF_8)) {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				String[] args = TextHelpers.splitArguments(line);
+				if (args.length == 0 || args[0].startsWith("#")) {
+					continue;
+				}
+				runner.submit(String.format("%s:%d", _batchFileName, lineNumber), (info) -> {
+					MyCryptographyUtilityApplication job = newJob(info);
+					job.commandLineParameters().process(args);
+					runJob(job);
+				});
+			}
+		} finally {
+			awaitJobs(runner);
+		}
+	}
+
+	/**
+	 * Encrypts/decrypts every regular file under the input directory into the mirrored path under the output directory.
+	 * Files are submitted largest first to a work-stealing pool, so that a huge file does not start last.
+	 */
+	private void runRecursive() throws Exception {
+		if (_algorithm == Algorithm.UNDEFINED) {
+			throw new RuntimeException("Algorithm is not specified.");
+		} else if (_operation == 0) {
+			throw new RuntimeException("Operation(encrypt/decrypt) is not specified.");
+		} else if (_outFileName == null && !checkFlags(FLAG_VERIFY)) {
+			throw new RuntimeException("Output file is not specified.");
+		} else if (_outFileName != null && checkFlags(FLAG_VERIFY)) {
+			throw new RuntimeException("Output file cannot be specified with -verify.");
+		} else if (isIncremental() && checkFlags(FLAG_VERIFY)) {
+			throw new RuntimeException("Incremental mode cannot be combined with -verify.");
+		}
+		Path inDir = resolvePath(_inFileName).toAbsolutePath().normalize();
+		Path outDir = _outFileName != null ? resolvePath(_outFileName).toAbsolutePath().normalize() : null;
+		if (!Files.isDirectory(inDir)) {
+			throw new RuntimeException("Input directory does not exist.");
+		} else if (outDir != null && (outDir.startsWith(inDir) || inDir.startsWith(outDir))) {
+			throw new RuntimeException("Input and output directories must not overlap.");
+		}
+		List<Path> files = new ArrayList<>();
+		Map<Path, Long> sizes = new HashMap<>();
+		try (Stream<Path> stream = Files.walk(inDir)) {
+			stream.filter((path) -> Files.isRegularFile(path)).forEach((path) -> files.add(path));
+		}
+		for (Path path : files) {
+			sizes.put(path, Files.size(path));
+		}
+		files.sort(Comparator.comparing((Path path) -> sizes.get(path)).reversed());
+		_salts = new DerivedKeyCache.Salts(DerivedKeyCache.CAPACITY);
+		IncrementalIndex index = isIncremental() ? IncrementalIndex.open(resolvePath(_indexFileName)) : null;
+		byte[] parameters = isIncremental() ? incrementalParameters() : null;
+		IncrementalIndex.Writer entries = isIncremental() ? new IncrementalIndex.Writer(resolvePath(_indexFileName)) : null;
+		AtomicLong skipped = new AtomicLong();
+		JobRunner runner = newJobRunner(true);
+		try {
+			for (Path inPath : files) {
+				Path outPath = outDir != null ? outDir.resolve(inDir.relativize(inPath)) : null;
+				runner.submit(inDir.relativize(inPath).toString(), (info) -> {
+					byte[] key = null;
+					long size = 0L;
+					long mtime = 0L;
+					if (index != null) {
+						key = IncrementalIndex.keyOf(inDir.relativize(inPath).toString().replace(File.separatorChar, '/'));
+						size = Files.size(inPath);
+						mtime = Files.getLastModifiedTime(inPath).toMillis();
+						IncrementalIndex.Entry entry = unchanged(index.find(key), inPath, outPath, parameters, size, mtime);
+						if (entry != null) {
+							entries.add(entry);
+							skipped.incrementAndGet();
+							return;
+						}
+					}
+					MyCryptographyUtilityApplication job = newJob(info);
+					job.setInputPath(_operation, inPath.toString());
+					job.setFlags(_flags & (FLAG_OVERWRITE | FLAG_VERIFY));
+					if (outPath != null) {
+						job.setOutputPath(outPath.toString());
+						Files.createDirectories(outPath.getParent());
+					}
+					if (index != null) {
+						// replaces outputs of changed files, hashing both sides on the way
+						job.setFlags(FLAG_OVERWRITE);
+						List<String> names = new ArrayList<>(hasDigests() ? _digestNames : List.of());
+						names.add(SHA_256);
+						job.setDigests(names);
+					}
+					runJob(job);
+					if (index != null) {
+						entries.add(new IncrementalIndex.Entry(key, size, mtime, parameters,
+								IncrementalIndex.truncate(job._inDigests.value(SHA_256)), Files.size(outPath),
+								IncrementalIndex.truncate(job._outDigests.value(SHA_256))));
 					}
+				});
+			}
+		} finally {
+			try {
+				awaitJobs(runner);
+			} finally {
+				if (index != null) {
+					index.close();
+					try {
+						entries.commit();
+					} finally {
+						entries.close();
+					}
+					_console.printf("%d unchanged, skipped\n", skipped.get());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the index record to keep if the file need not be processed again, or null.
+	 * A file whose mtime has changed is hashed to see whether its content has changed as well.
+	 */
+	private static IncrementalIndex.Entry unchanged(IncrementalIndex.Entry entry, Path inPath, Path outPath, byte[] parameters, long size, long mtime) throws Exception {
+		if (entry == null || !Arrays.equals(entry.parameters, parameters) || entry.size != size
+				|| !Files.isRegularFile(outPath) || Files.size(outPath) != entry.outputSize) {
+			return null;
+		} else if (entry.mtime == mtime) {
+			return entry;
+		} else if (Arrays.equals(entry.content, IncrementalIndex.contentHash(inPath))) {
+			return entry.withMtime(mtime);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the hash of the parameters that make up the output of a job, so that -incremental redoes every file when any of them changes.
+	 */
+	private byte[] incrementalParameters() throws Exception {
+		StringBuilder text = new StringBuilder();
+		for (Object value : new Object[] {
+				transformation(), _operation, _iv, _nonce, _aad, _tagLength, _segmentSize,
+				_flags & (FLAG_SEGMENTED | FLAG_COMPRESSED | FLAG_PBKDF2), _compressionLevel, _iterations,
+				hasArmor() ? _armor.label() : null }) {
+			text.append(value instanceof byte[] ? HexString.toString((byte[])value) : String.valueOf(value)).append('\n');
+		}
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(incrementalKey(), "HmacSHA256"));
+		return IncrementalIndex.truncate(mac.doFinal(text.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Returns the key that the parameters are authenticated under, so that the index tells a change of the key
+	 * without holding anything to test guesses of the key or the phrase against more cheaply than the outputs do.
+	 * With PBKDF2, the key is derived from the phrase with a salt of the index path, as costly as the outputs' own.
+	 */
+	private byte[] incrementalKey() throws Exception {
+		if (!checkFlags(FLAG_PBKDF2)) {
+			if (!hasKey()) {
+				throw new RuntimeException("Private key is not specified.");
+			}
+			return _key;
+		} else if (_keyPhrase == null) {
+			throw new RuntimeException("Key derivation with PBKDF2 requires a key phrase.");
+		}
+		byte[] salt = Arrays.copyOf(IncrementalIndex.sha256().digest(resolvePath(_indexFileName).toAbsolutePath().toString()
+				.getBytes(StandardCharsets.UTF_8)), KdfHeader.SALT_LENGTH);
+		return DerivedKeyCache.shared().derive(_keyPhrase, salt, hasIterations() ? _iterations : PBKDF2_ITERATIONS_DEFAULT, _keyLength);
+	}
+
+	/**
+	 * Keeps one warmed-up JVM serving jobs over a Unix domain socket.
+	 * Parameters given to the server apply to every job as defaults, except for the key unless -sharekey is specified.
+	 */
+	private void runServer() throws Exception {
+		if (!hasSocketPath()) {
+			throw new RuntimeException("Socket file is not specified.");
+		}
+		long started = System.nanoTime();
+		warmUp();
+		_console.printf("Warmed up in %d ms\n", (System.nanoTime() - started) / 1000000L);
+		int threads = hasThreads() ? _threads : Runtime.getRuntime().availableProcessors();
+		new Daemon(Paths.get(_socketFileName)).serve(threads, (workingDirectory, args, info) -> {
+			MyCryptographyUtilityApplication job = newJob(info);
+			job._workingDirectory = workingDirectory;
+			job.commandLineParameters().process(args);
+			runJob(job);
+		}, _console);
+	}
+
+	private void runClient() throws Exception {
+		if (!hasSocketPath()) {
+			throw new RuntimeException("Socket file is not specified.");
+		}
+		Path workingDirectory = Paths.get("").toAbsolutePath();
+		int status = new Daemon(Paths.get(_socketFileName)).request(workingDirectory, _clientArgs, _console);
+		if (status != 0) {
+			throw new RuntimeException("Job failed on server.");
+		}
+	}
+
+	private static final int WARM_UP_SIZE = 64 * 1024;
+	private static final int WARM_UP_ROUNDS = 64;
+
+	/**
+	 * Runs every transformation on a dummy buffer so that the providers are initialized
+	 * and the AES/GHASH code paths are JIT-compiled before the first job arrives.
+	 */
+	private static void warmUp() throws Exception {
+		byte[] buf = new byte[WARM_UP_SIZE];
+		byte[] out = new byte[WARM_UP_SIZE + AES_GCM_TAG_LENGTH_MAX + AES_IV_LENGTH];
+		byte[] iv = new byte[AES_IV_LENGTH];
+		for (Transformation t : Transformation.values()) {
+			SecretKeySpec keySpec = new SecretKeySpec(new byte[t.keyLength()], t.algorithm().label());
+			Cipher cipher = CipherProviders.getInstance(t.jceName());
+			for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+				if (t.mode() == OperationalMode.ECB) {
+					cipher.init(Cipher.ENCRYPT_MODE, keySpec);
+				} else if (t.mode() == OperationalMode.GCM) {
+					iv[0] = (byte)i;
+					cipher.init(Cipher.ENCRYPT_MODE, keySpec, new GCMParameterSpec(AES_GCM_TAG_LENGTH_MAX * 8, iv, 0, AES_GCM_NONCE_LENGTH));
+				} else {
+					cipher.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(iv));
 				}
+				cipher.doFinal(buf, 0, buf.length, out, 0);
+			}
+		}
+	}
+
+	/**
+	 * Returns the runner of the jobs of -batch/-recursive.
+	 * With -vthreads every job gets its own virtual thread and -maxopen defaults to DEFAULT_MAX_OPEN,
+	 * as blocking opens and moves of small files then no longer tie up a platform thread each.
+	 */
+	private JobRunner newJobRunner(boolean workStealing) {
+		int threads = hasThreads() ? _threads : Runtime.getRuntime().availableProcessors();
+		if (checkFlags(FLAG_VIRTUAL_THREADS)) {
+			ExecutorService executor = JobRunner.newVirtualThreadPerTaskExecutor();
+			if (executor != null) {
+				return new JobRunner(executor, _console, hasMaxOpen() ? _maxOpen : DEFAULT_MAX_OPEN);
 			}
+			_console.printf("Virtual threads are not available on Java %d; using %d platform threads.\n", Runtime.version().feature(), threads);
+		}
+		ExecutorService executor = workStealing ? Executors.newWorkStealingPool(threads) : Executors.newFixedThreadPool(threads);
+		return new JobRunner(executor, _console, _maxOpen);
+	}
+
+	private void awaitJobs(JobRunner runner) throws Exception {
+		try {
+			runner.await();
+		} finally {
+			_console.printf("Cipher cache: %d hits, %d misses\n", CipherCache.shared().hits(), CipherCache.shared().misses());
+		}
+	}
+
+	private MyCryptographyUtilityApplication newJob(PrintStream info) {
+		MyCryptographyUtilityApplication job = new MyCryptographyUtilityApplication();
+		job._console = info;
+		return job;
+	}
+
+	private void runJob(MyCryptographyUtilityApplication job) throws Exception {
+		try {
+			job.inherit(this);
+			job.verifyFiles();
+			job.run();
+		} finally {
+			job.cleanup();
+		}
+	}
+
+	private boolean isParallelizable() throws Exception {
+		return _mode == OperationalMode.CTR && !"-".equals(_inFileName) && !"-".equals(_outFileName) && !checkFlags(FLAG_VERIFY)
+				&& !checkFlags(FLAG_COMPRESSED) && !checkFlags(FLAG_PBKDF2) && !hasArmor() && !hasDigests() && !isCompressedInput();
+	}
+
+	/**
+	 * Derives the key from the phrase with PBKDF2.
+	 * Encryption writes the salt and a random IV/nonce at the head of the output;
+	 * decryption reads them back from the head of the input.
+	 */
+	private void deriveKey(InputStream in, OutputStream out) throws Exception {
+		int ivLength = _ivLength > 0 ? _ivLength : _nonceLength;
+		KdfHeader header;
+		if (_operation == Cipher.ENCRYPT_MODE) {
+			byte[] iv = new byte[ivLength];
+			RANDOM.nextBytes(iv);
+			// the files of a batch or recursive run share the salt, and so the derivation
+			byte[] salt = _salts != null ? _salts.saltFor(_keyPhrase, _iterations, _keyLength) : DerivedKeyCache.newSalt();
+			header = new KdfHeader(_iterations, salt, iv);
+			header.write(out);
+		} else {
+			header = KdfHeader.read(in);
+			if (header.iv().length != ivLength) {
+				throw new RuntimeException("Key derivation header does not match the transformation.");
+			}
+		}
+		_key = DerivedKeyCache.shared().derive(_keyPhrase, header.salt(), header.iterations(), _keyLength);
+		if (_ivLength > 0) {
+			_iv = header.iv();
+		} else if (_nonceLength > 0) {
+			_nonce = header.iv();
+		}
+	}
+
+	/**
+	 * Tells whether the input file to decrypt starts with the header of a compressed stream,
+	 * which only the streaming path expands.
+	 */
+	private boolean isCompressedInput() throws Exception {
+		if (_operation != Cipher.DECRYPT_MODE || "-".equals(_inFileName)) {
+			return false;
+		}
+		try (InputStream in = Files.newInputStream(inputPath())) {
+			byte[] head = in.readNBytes(ParallelDeflaterOutputStream.HEADER_LENGTH);
+			return ParallelDeflaterOutputStream.isHeader(head, 0, head.length);
+		}
+	}
+
+	private void runParallel() throws Exception {
+		FileChannel in = null;
+		FileChannel out = null;
+		try {
+			_stats.start();
+			in = openInputChannel();
+			out = openOutputChannel();
+			_stats.lap("open");
+			SecretKeySpec keySpec = new SecretKeySpec(_key, _algorithm.label());
+			ParallelCounterMode engine = new ParallelCounterMode(transformation(), _cipherProvider, keySpec, _iv, _operation);
+			printKeyAndIv();
+			_stats.lap("init");
+			long length = in.size();
+			engine.transfer(in, out, length);
+			_stats.lap("update");
+			_info.printf("%s in\n", TextHelpers.numberOfBytes(length));
+			closeInput(in);
+			_info.printf("%s out\n", TextHelpers.numberOfBytes(length));
+			commitOutput(out);
+			_stats.lap("commit");
+			complete(length, length);
+		} finally {
+			closeInput(in);
+			closeOutput(out);
+		}
+	}
+
+	private void runSegmented() throws Exception {
+		SecretKeySpec keySpec = new SecretKeySpec(_key, _algorithm.label());
+		SegmentedGcm engine = new SegmentedGcm(transformation(), _cipherProvider, keySpec, _nonce, _aad);
+		if (_operation == Cipher.ENCRYPT_MODE) {
+			engine.setParameters(hasTagLength() ? _tagLength : AES_GCM_TAG_LENGTH_MIN,
+					hasSegmentSize() ? _segmentSize : SegmentedGcm.DEFAULT_SEGMENT_SIZE, checkFlags(FLAG_APPEND));
+		}
+		boolean parallel = !"-".equals(_inFileName) && !"-".equals(_outFileName) && !checkFlags(FLAG_VERIFY) && !hasDigests();
+		Closeable in = null;
+		Closeable out = null;
+		try {
+			long inBytes;
+			long outBytes;
+			_stats.start();
+			if (parallel) {
+				FileChannel inChannel = openInputChannel();
+				in = inChannel;
+				FileChannel outChannel = openOutputChannel();
+				out = outChannel;
+				_stats.lap("open");
+				inBytes = inChannel.size();
+				if (_operation == Cipher.ENCRYPT_MODE) {
+					outBytes = engine.encrypt(inChannel, outChannel, inBytes);
+				} else {
+					outBytes = engine.decrypt(inChannel, outChannel);
+				}
+				_stats.lap("update");
+			} else {
+				CountingInputStream inStream = new CountingInputStream(teeInput(openInput()));
+				in = inStream;
+				OutputStream outStream = teeOutput(openOutput());
+				out = outStream;
+				_stats.lap("open");
+				if (_operation == Cipher.ENCRYPT_MODE) {
+					outBytes = engine.encrypt(inStream, outStream);
+				} else {
+					outBytes = engine.decrypt(inStream, outStream);
+				}
+				_stats.lap("update");
+				outStream.flush();
+				_stats.lap("flush");
+				inBytes = inStream.count();
+			}
+			printGcmParameters(engine.tagLength());
+			_info.printf("  SEG %d\n", engine.segmentSize());
 			_info.printf("%s in\n", TextHelpers.numberOfBytes(inBytes));
 			closeInput(in);
-			byte[] result = cipher.doFinal();
-			if (result != null) {
-				out.write(result);
-				outBytes += result.length;
+			_info.printf("%s out\n", TextHelpers.numberOfBytes(outBytes));
+			printDigests();
+			commitOutput(out);
+			_stats.lap("commit");
+			complete(inBytes, outBytes);
+		} finally {
+			closeInput(in);
+			closeOutput(out);
+		}
+	}
+
+	/**
+	 * Decrypts only the requested range of plaintext.
+	 * Both CTR and the segmented format allow computing where the range lies in the ciphertext,
+	 * so the input is read from there on instead of from the beginning.
+	 */
+	private void runRange() throws Exception {
+		SecretKeySpec keySpec = new SecretKeySpec(_key, _algorithm.label());
+		FileChannel in = null;
+		CountingOutputStream out = null;
+		try {
+			_stats.start();
+			in = openInputChannel();
+			out = new CountingOutputStream(openOutput());
+			_stats.lap("open");
+			long inBytes;
+			if (checkFlags(FLAG_SEGMENTED)) {
+				SegmentedGcm engine = new SegmentedGcm(transformation(), _cipherProvider, keySpec, _nonce, _aad);
+				inBytes = engine.decryptRange(in, _rangeStart, _rangeLength, out);
+				printGcmParameters(engine.tagLength());
+				_info.printf("  SEG %d\n", engine.segmentSize());
+			} else {
+				ParallelCounterMode engine = new ParallelCounterMode(transformation(), _cipherProvider, keySpec, _iv, _operation);
+				printKeyAndIv();
+				inBytes = engine.transferRange(in, _rangeStart, _rangeLength, out);
 			}
+			_stats.lap("update");
+			_info.printf("%s in\n", TextHelpers.numberOfBytes(inBytes));
+			closeInput(in);
 			out.flush();
+			_stats.lap("flush");
+			_info.printf("%s out\n", TextHelpers.numberOfBytes(out.count()));
+			commitOutput(out);
+			_stats.lap("commit");
+			complete(inBytes, out.count());
+		} finally {
+			closeInput(in);
+			closeOutput(out);
+		}
+	}
+
+	/**
+	 * Encrypts the input onto the end of the existing output file in place,
+	 * touching only the final segment (segmented format) or nothing at all (CTR) of what is already there.
+	 * An append that was interrupted earlier is rolled back first.
+	 */
+	private void runAppend() throws Exception {
+		Path path = resolvePath(_outFileName);
+		Path journal = AppendJournal.pathOf(path);
+		SecretKeySpec keySpec = new SecretKeySpec(_key, _algorithm.label());
+		_info = _console;
+		CountingInputStream in = null;
+		try (FileChannel out = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			out.lock(); // released when the channel is closed
+			_stats.start();
+			if (AppendJournal.recover(out, journal)) {
+				_info.printf("Rolled back an interrupted append.\n");
+			}
+			in = new CountingInputStream(openInput());
+			_stats.lap("open");
+			long outBytes;
+			if (checkFlags(FLAG_SEGMENTED)) {
+				SegmentedGcm engine = new SegmentedGcm(transformation(), _cipherProvider, keySpec, _nonce, _aad);
+				outBytes = engine.append(in, out, journal);
+				printGcmParameters(engine.tagLength());
+				_info.printf("  SEG %d\n", engine.segmentSize());
+			} else {
+				byte[] head = new byte[ParallelDeflaterOutputStream.HEADER_LENGTH];
+				int n = out.read(ByteBuffer.wrap(head), 0L);
+				if (ParallelDeflaterOutputStream.isHeader(head, 0, Math.max(n, 0))) {
+					throw new RuntimeException("Compressed output cannot be appended to.");
+				}
+				ParallelCounterMode engine = new ParallelCounterMode(transformation(), _cipherProvider, keySpec, _iv, _operation);
+				printKeyAndIv();
+				outBytes = engine.append(in, out, journal);
+			}
+			_stats.lap("update");
+			_info.printf("%s in\n", TextHelpers.numberOfBytes(in.count()));
+			_info.printf("%s out\n", TextHelpers.numberOfBytes(outBytes));
+			complete(in.count(), outBytes);
+		} finally {
+			closeInput(in);
+		}
+	}
+
+	private void runMapped() throws Exception {
+		FileChannel in = null;
+		FileChannel out = null;
+		try {
+			_stats.start();
+			in = openInputChannel();
+			out = openOutputChannel();
+			_stats.lap("open");
+			Cipher cipher = getCipher();
+			_stats.lap("init");
+			long inBytes = in.size();
+			long outBytes = 0L;
+			long estimate = inBytes + cipher.getOutputSize(0); // pre-sizes the temporary file
+			if (estimate > 0) {
+				out.write(ByteBuffer.allocate(1), estimate - 1);
+			}
+			long position = 0L;
+			while (position < inBytes) {
+				// one pair of windows at a time, released before the next one is mapped
+				int n = (int)Math.min(_mapWindowSize, inBytes - position);
+				MappedByteBuffer src = in.map(FileChannel.MapMode.READ_ONLY, position, n);
+				MappedByteBuffer dst = null;
+				try {
+					dst = out.map(FileChannel.MapMode.READ_WRITE, outBytes, cipher.getOutputSize(n));
+					cipher.update(src, dst);
+					outBytes += dst.position();
+				} finally {
+					MappedBuffers.release(src);
+					MappedBuffers.release(dst);
+				}
+				position += n;
+			}
+			_stats.lap("update");
+			_info.printf("%s in\n", TextHelpers.numberOfBytes(inBytes));
+			closeInput(in);
+			// the final block and the tag are small enough to go through the heap
+			ByteBuffer last = ByteBuffer.allocate(cipher.getOutputSize(0));
+			cipher.doFinal(ByteBuffer.allocate(0), last);
+			last.flip();
+			while (last.hasRemaining()) {
+				outBytes += out.write(last, outBytes);
+			}
+			out.truncate(outBytes);
+			_stats.lap("doFinal");
 			_info.printf("%s out\n", TextHelpers.numberOfBytes(outBytes));
 			commitOutput(out);
+			_stats.lap("commit");
+			complete(inBytes, outBytes);
 		} finally {
+			releaseCipher();
 			closeInput(in);
 			closeOutput(out);
 		}
 	}
 
+	/**
+	 * Records the byte counts of the job and prints the statistics if requested.
+	 */
+	private void complete(long inBytes, long outBytes) {
+		_inBytes = inBytes;
+		_outBytes = outBytes;
+		if (_stats.isEnabled()) {
+			_info.println(_stats.toJson(transformation(), operationLabel(), inBytes, outBytes));
+		}
+	}
+
+	private String operationLabel() {
+		return _operation == Cipher.ENCRYPT_MODE ? "encrypt" : "decrypt";
+	}
+
+	/**
+	 * Returns the chunk size of the streaming loop.
+	 */
+	private int bufferSize() throws Exception {
+		int size;
+		if (_bufferSize == BUFFER_SIZE_AUTO || _bufferSize == BUFFER_SIZE_PROBE) {
+			if ("-".equals(_inFileName)) {
+				size = PIPE_BUFFER_SIZE;
+			} else {
+				Path path = resolvePath(_inFileName);
+				int blockSize = blockSize(path);
+				size = _bufferSize == BUFFER_SIZE_PROBE ? probeBufferSize(path, blockSize) : autoBufferSize(Files.size(path), blockSize);
+			}
+			_info.printf("BUF %d\n", size);
+		} else if (_bufferSize > 0) {
+			size = _bufferSize;
+		} else {
+			size = CipherTransfer.DEFAULT_BUFFER_SIZE;
+		}
+		return size;
+	}
+
+	private static int blockSize(Path path) {
+		try {
+			long blockSize = Files.getFileStore(path).getBlockSize();
+			if (0 < blockSize && blockSize <= AUTO_BUFFER_SIZE_MAX) {
+				return (int)blockSize;
+			}
+		} catch (Exception e) {
+			// falls back to the default
+		}
+		return DEFAULT_BLOCK_SIZE;
+	}
+
+	/**
+	 * Picks about one sixteenth of the file, as a power of two
+	 * between the file system block size and AUTO_BUFFER_SIZE_MAX.
+	 * A small file is read in one go.
+	 */
+	private static int autoBufferSize(long fileSize, int blockSize) {
+		int size = blockSize;
+		while (size < AUTO_BUFFER_SIZE_MAX && size < fileSize / 16) {
+			size <<= 1;
+		}
+		if (fileSize < size) {
+			size = (int)Math.max(BUFFER_SIZE_MIN, (fileSize + blockSize - 1) / blockSize * blockSize);
+		}
+		return size;
+	}
+
+	/**
+	 * Times reads of the leading part of the file with candidate sizes from the block size up to half of PROBE_REGION,
+	 * each candidate reading a different region of PROBE_REGION bytes, and picks the fastest per byte.
+	 * Falls back to the automatic choice if the file is too small to tell.
+	 */
+	private static int probeBufferSize(Path path, int blockSize) throws Exception {
+		long fileSize = Files.size(path);
+		List<Integer> candidates = new ArrayList<>();
+		for (int size = Math.max(blockSize, PROBE_SIZE_MIN); size <= PROBE_REGION / 2; size <<= 2) {
+			candidates.add(size);
+		}
+		long region = PROBE_REGION;
+		if (candidates.isEmpty() || fileSize < region * candidates.size()) {
+			return autoBufferSize(fileSize, blockSize);
+		}
+		int best = candidates.get(0);
+		double bestTime = Double.MAX_VALUE;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			for (int i = 0; i < candidates.size(); i++) {
+				int size = candidates.get(i);
+				ByteBuffer buf = ByteBuffer.allocate(size);
+				long position = i * region;
+				long end = position + region;
+				long started = System.nanoTime();
+				while (position < end) {
+					buf.clear();
+					int n = channel.read(buf, position);
+					if (n <= 0) {
+						break;
+					}
+					position += n;
+				}
+				double time = (double)(System.nanoTime() - started) / (position - i * region);
+				if (time < bestTime) {
+					bestTime = time;
+					best = size;
+				}
+			}
+		}
+		return best;
+	}
+
 	private void verifyParameters() throws Exception {
 		if (_algorithm == Algorithm.UNDEFINED) {
 			throw new RuntimeException("Algorithm is not specified.");
@@ -200,17 +1456,91 @@ public class MyCryptographyUtilityApplication {
 		if (_operation == 0) {
 			throw new RuntimeException("Operation(encrypt/decrypt) is not specified.");
 		}
-		if (_outFileName == null) {
+		if (isIncremental()) {
+			throw new RuntimeException("Incremental mode requires -recursive.");
+		}
+		if (checkFlags(FLAG_SHARE_KEY)) {
+			throw new RuntimeException("Sharing the key requires -server.");
+		}
+		if (hasFanout()) {
+			if (_operation != Cipher.ENCRYPT_MODE) {
+				throw new RuntimeException("Fan-out can be specified only for encryption.");
+			} else if (_outFileName != null || hasKey()) {
+				throw new RuntimeException("Fan-out takes the keys and output files of its own; -out and -key cannot be specified.");
+			} else if (checkFlags(FLAG_SEGMENTED) || checkFlags(FLAG_MAPPED) || checkFlags(FLAG_PIPELINED) || checkFlags(FLAG_APPEND)
+					|| checkFlags(FLAG_COMPRESSED) || checkFlags(FLAG_PBKDF2) || hasArmor()) {
+				throw new RuntimeException("Fan-out cannot be combined with segmented format, memory-mapped I/O, pipelining, append, compression, PBKDF2 or armor.");
+			}
+		} else if (checkFlags(FLAG_VERIFY)) {
+			if (_outFileName != null) {
+				throw new RuntimeException("Output file cannot be specified with -verify.");
+			} else if (checkFlags(FLAG_MAPPED) || hasRange()) {
+				throw new RuntimeException("Verification cannot be combined with memory-mapped I/O or range.");
+			}
+		} else if (_outFileName == null) {
 			throw new RuntimeException("Output file is not specified.");
 		}
 		verifyKey();
 		verifyIv();
 		verifyNonce();
 		verifyAad();
+		verifySegmentation();
+		verifyMapping();
+		verifyPipelining();
+		verifyRange();
+		verifyAppend();
+		verifyCompression();
+		verifyKdf();
+		verifyArmor();
+		verifyDigests();
+	}
+
+	private void verifyDigests() {
+		if (hasDigests()) {
+			if (checkFlags(FLAG_MAPPED) || checkFlags(FLAG_APPEND) || hasRange()) {
+				throw new RuntimeException("Digests cannot be combined with memory-mapped I/O, append or range.");
+			}
+		}
+	}
+
+	private void verifyArmor() {
+		if (hasArmor()) {
+			if (checkFlags(FLAG_SEGMENTED) || checkFlags(FLAG_MAPPED) || checkFlags(FLAG_APPEND) || hasRange()) {
+				throw new RuntimeException("Armor cannot be combined with segmented format, memory-mapped I/O, append or range.");
+			}
+		}
+	}
+
+	private void verifyKdf() {
+		if (checkFlags(FLAG_PBKDF2)) {
+			if (checkFlags(FLAG_SEGMENTED) || checkFlags(FLAG_MAPPED) || checkFlags(FLAG_APPEND) || hasRange()) {
+				throw new RuntimeException("PBKDF2 cannot be combined with segmented format, memory-mapped I/O, append or range.");
+			}
+		}
+	}
+
+	private void verifyFiles() {
+		if (isBatch() || checkFlags(FLAG_RECURSIVE) || checkFlags(FLAG_SERVER) || _clientArgs != null) {
+			throw new RuntimeException("Batch/recursive/server mode cannot be nested.");
+		} else if (checkFlags(FLAG_HELP) || checkFlags(FLAG_SPEED)) {
+			throw new RuntimeException("Help and speed measurement cannot be run in batch/server mode.");
+		} else if ("-".equals(_inFileName) || "-".equals(_outFileName)) {
+			throw new RuntimeException("Standard input/output cannot be used in this mode.");
+		}
 	}
 
 	private void verifyKey() throws Exception {
-		if (hasKey()) {
+		if (hasFanout()) {
+			// every recipient has its own
+		} else if (checkFlags(FLAG_PBKDF2)) {
+			if (_keyPhrase == null) {
+				throw new RuntimeException("Key derivation with PBKDF2 requires a key phrase.");
+			} else if (!hasIterations()) {
+				_iterations = PBKDF2_ITERATIONS_DEFAULT;
+			}
+		} else if (hasIterations()) {
+			throw new RuntimeException("Number of iterations can be specified only for PBKDF2.");
+		} else if (hasKey()) {
 			_key = adjustLength(_key, _keyLength);
 		} else {
 			throw new RuntimeException("Private key is not specified.");
@@ -218,9 +1548,16 @@ public class MyCryptographyUtilityApplication {
 	}
 
 	private void verifyIv() throws Exception {
-		if (_ivLength > 0) {
+		if (checkFlags(FLAG_PBKDF2)) {
+			if (hasIv() || hasNonce()) {
+				throw new RuntimeException("Initial vector/nonce cannot be specified with PBKDF2; a random one is stored in the output.");
+			}
+		} else if (_ivLength > 0) {
 			if (hasIv()) {
 				_iv = adjustLength(_iv, _ivLength);
+			} else if (checkFlags(FLAG_APPEND) && _mode == OperationalMode.CTR) {
+				// plain CTR stores no IV, and the appended part continues the keystream of the given one
+				throw new RuntimeException("Append in CTR mode requires an initial vector.");
 			} else {
 				_iv = adjustLength(generate32Bytes(null), _ivLength);
 			}
@@ -230,30 +1567,99 @@ public class MyCryptographyUtilityApplication {
 	}
 
 	private void verifyNonce() throws Exception {
-		if (_nonceLength > 0) {
+		if (checkFlags(FLAG_PBKDF2)) {
+			// comes with the key derivation header
+		} else if (_nonceLength > 0) {
 			if (hasNonce()) {
 				_nonce = adjustLength(_nonce, _nonceLength);
 			} else {
 				_nonce = adjustLength(generate32Bytes(null), _nonceLength);
 			}
-		} else if (hasNonce()) {
-			throw new RuntimeException("Nonce is not required.");
+		} else if (hasNonce()) {
+			throw new RuntimeException("Nonce is not required.");
+		}
+	}
+
+	private static byte[] adjustLength(byte[] value, int length) {
+		if (value.length != length) {
+			return Arrays.copyOf(value, length);
+		} else {
+			return value;
+		}
+	}
+
+	private void verifyAad() {
+		if (_mode == OperationalMode.GCM) {
+			// OK
+		} else if (hasAad()) {
+			throw new RuntimeException(String.format("Additional authentication data cannot be specified for %s.", _mode.label()));
+		}
+	}
+
+	private void verifySegmentation() {
+		if (checkFlags(FLAG_SEGMENTED)) {
+			if (_mode != OperationalMode.GCM) {
+				throw new RuntimeException(String.format("Segmented format cannot be specified for %s.", _mode.label()));
+			}
+		} else if (hasSegmentSize()) {
+			throw new RuntimeException("Segment size requires segmented format.");
+		}
+	}
+
+	private void verifyMapping() {
+		if (checkFlags(FLAG_MAPPED)) {
+			if ("-".equals(_inFileName) || "-".equals(_outFileName)) {
+				throw new RuntimeException("Memory-mapped I/O requires both input and output files.");
+			} else if (checkFlags(FLAG_SEGMENTED)) {
+				throw new RuntimeException("Memory-mapped I/O cannot be combined with segmented format.");
+			} else if (_mode == OperationalMode.GCM && _operation == Cipher.DECRYPT_MODE) {
+				// GCM holds back the whole plaintext until the tag is checked, which does not fit in a window
+				throw new RuntimeException("Memory-mapped I/O cannot be specified for GCM decryption.");
+			}
+		}
+	}
+
+	private void verifyRange() {
+		if (hasRange()) {
+			if (_operation != Cipher.DECRYPT_MODE) {
+				throw new RuntimeException("Range can be specified only for decryption.");
+			} else if (_mode != OperationalMode.CTR && !checkFlags(FLAG_SEGMENTED)) {
+				throw new RuntimeException("Range requires CTR mode or segmented format.");
+			} else if ("-".equals(_inFileName)) {
+				throw new RuntimeException("Range requires an input file.");
+			} else if (checkFlags(FLAG_MAPPED) || checkFlags(FLAG_PIPELINED)) {
+				throw new RuntimeException("Range cannot be combined with memory-mapped I/O or pipelining.");
+			}
+		}
+	}
+
+	private void verifyAppend() {
+		if (checkFlags(FLAG_APPEND)) {
+			if (_operation != Cipher.ENCRYPT_MODE) {
+				throw new RuntimeException("Append can be specified only for encryption.");
+			} else if (_mode != OperationalMode.CTR && !checkFlags(FLAG_SEGMENTED)) {
+				throw new RuntimeException("Append requires CTR mode or segmented format.");
+			} else if ("-".equals(_outFileName)) {
+				throw new RuntimeException("Append requires an output file.");
+			} else if (checkFlags(FLAG_MAPPED) || checkFlags(FLAG_PIPELINED)) {
+				throw new RuntimeException("Append cannot be combined with memory-mapped I/O or pipelining.");
+			}
 		}
 	}
 
-	private static byte[] adjustLength(byte[] value, int length) {
-		if (value.length != length) {
-			return Arrays.copyOf(value, length);
-		} else {
-			return value;
+	private void verifyCompression() {
+		if (checkFlags(FLAG_COMPRESSED)) {
+			if (_operation != Cipher.ENCRYPT_MODE) {
+				throw new RuntimeException("Compression can be specified only for encryption; decryption expands it automatically.");
+			} else if (checkFlags(FLAG_SEGMENTED) || checkFlags(FLAG_MAPPED) || checkFlags(FLAG_PIPELINED) || checkFlags(FLAG_APPEND)) {
+				throw new RuntimeException("Compression cannot be combined with segmented format, memory-mapped I/O, pipelining or append.");
+			}
 		}
 	}
 
-	private void verifyAad() {
-		if (_mode == OperationalMode.GCM) {
-			// OK
-		} else if (hasAad()) {
-			throw new RuntimeException(String.format("Additional authentication data cannot be specified for %s.", _mode.label()));
+	private void verifyPipelining() {
+		if (checkFlags(FLAG_PIPELINED) && (checkFlags(FLAG_SEGMENTED) || checkFlags(FLAG_MAPPED))) {
+			throw new RuntimeException("Pipelining cannot be combined with segmented format or memory-mapped I/O.");
 		}
 	}
 
@@ -262,17 +1668,58 @@ public class MyCryptographyUtilityApplication {
 		if ("-".equals(_inFileName)) {
 			in = System.in;
 		} else {
-			Path path = Paths.get(_inFileName);
-			if (!Files.exists(path)) {
-				throw new RuntimeException("Input file does not exist.");
-			}
+			OpenEvent event = beginOpenEvent();
+			Path path = inputPath();
 			in = Files.newInputStream(path);
 			setFlags(FLAG_IN_TO_CLOSE);
+			commitOpenEvent(event, path, false);
 		}
 		return in;
 	}
+
+	private FileChannel openInputChannel() throws Exception {
+		OpenEvent event = beginOpenEvent();
+		Path path = inputPath();
+		FileChannel in = FileChannel.open(path, StandardOpenOption.READ);
+		setFlags(FLAG_IN_TO_CLOSE);
+		commitOpenEvent(event, path, false);
+		return in;
+	}
+
+	/**
+	 * Returns a new event that has begun, or null while JFR is not initialized, as do the other events of a job.
+	 */
+	private static OpenEvent beginOpenEvent() {
+		if (Events.enabled()) {
+			OpenEvent event = new OpenEvent();
+			event.begin();
+			return event;
+		} else {
+			return null;
+		}
+	}
+
+	private static void commitOpenEvent(OpenEvent event, Path path, boolean output) {
+		if (event == null) {
+			return;
+		}
+		event.end();
+		if (event.shouldCommit()) {
+			event.path = path.toString();
+			event.output = output;
+			event.commit();
+		}
+	}
+
+	private Path inputPath() {
+		Path path = resolvePath(_inFileName);
+		if (!Files.exists(path)) {
+			throw new RuntimeException("Input file does not exist.");
+		}
+		return path;
+	}
 	
-	private void closeInput(InputStream in) {
+	private void closeInput(Closeable in) {
 		if (checkFlags(FLAG_IN_TO_CLOSE)) {
 			try {
 				in.close();
@@ -285,24 +1732,47 @@ public class MyCryptographyUtilityApplication {
 
 	private OutputStream openOutput() throws Exception {
 		OutputStream out;
-		if ("-".equals(_outFileName)) {
+		if (checkFlags(FLAG_VERIFY)) {
+			// only the tag check matters
+			out = OutputStream.nullOutputStream();
+			_info = _console;
+		} else if ("-".equals(_outFileName)) {
 			out = System.out;
 			_info = System.err;
 		} else {
-			_outPath = Paths.get(_outFileName);
-			if (!checkFlags(FLAG_OVERWRITE)&& Files.exists(_outPath)) {
-				throw new RuntimeException("Output file already exists.");
-			}
-			_tmpPath = Paths.get(String.format("%s.%d", _outFileName, System.currentTimeMillis()));
+			OpenEvent event = beginOpenEvent();
+			prepareOutputPath();
 			out = Files.newOutputStream(_tmpPath);
 			setFlags(FLAG_OUT_TO_CLOSE);
-			_info = System.out;
+			commitOpenEvent(event, _tmpPath, true);
 		}
 		return out;
 	}
+
+	private FileChannel openOutputChannel() throws Exception {
+		OpenEvent event = beginOpenEvent();
+		prepareOutputPath();
+		FileChannel out = FileChannel.open(_tmpPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		setFlags(FLAG_OUT_TO_CLOSE);
+		commitOpenEvent(event, _tmpPath, true);
+		return out;
+	}
+
+	private void prepareOutputPath() {
+		_outPath = resolvePath(_outFileName);
+		if (!checkFlags(FLAG_OVERWRITE)&& Files.exists(_outPath)) {
+			throw new RuntimeException("Output file already exists.");
+		}
+		_tmpPath = Paths.get(String.format("%s.%d", _outPath, System.currentTimeMillis()));
+		_info = _console;
+	}
 	
-	private void commitOutput(OutputStream out) throws Exception {
+	private void commitOutput(Closeable out) throws Exception {
 		if (checkFlags(FLAG_OUT_TO_CLOSE)) {
+			CommitEvent event = Events.enabled() ? new CommitEvent() : null;
+			if (event != null) {
+				event.begin();
+			}
 			out.close();
 			resetFlags(FLAG_OUT_TO_CLOSE);
 			if (checkFlags(FLAG_OVERWRITE)) {
@@ -312,10 +1782,18 @@ public class MyCryptographyUtilityApplication {
 			} else {
 				Files.move(_tmpPath, _outPath);
 			}
+			if (event != null) {
+				event.end();
+			}
+			if (event != null && event.shouldCommit()) {
+				event.path = _outPath.toString();
+				event.replaced = checkFlags(FLAG_OVERWRITE);
+				event.commit();
+			}
 		}
 	}
 
-	private void closeOutput(OutputStream out) {
+	private void closeOutput(Closeable out) {
 		if (checkFlags(FLAG_OUT_TO_CLOSE)) {
 			try {
 				out.close();
@@ -327,28 +1805,54 @@ public class MyCryptographyUtilityApplication {
 	}
 
 	private Cipher getCipher() throws Exception {
-		return _cipherSupplier.get(_mode).get();
+		CipherInitEvent event = Events.enabled() ? new CipherInitEvent() : null;
+		if (event != null) {
+			event.begin();
+		}
+		Cipher cipher;
+		switch (_mode) {
+		case ECB:
+			cipher = getCipherWithKey();
+			break;
+		case GCM:
+			cipher = getCipherWithGcmParameterSpec();
+			break;
+		default:
+			cipher = getCipherWithKeyAndIv();
+			break;
+		}
+		if (hasProvider()) {
+			_info.printf("PROVIDER %s\n", cipher.getProvider().getName());
+		}
+		if (event != null) {
+			event.end();
+		}
+		if (event != null && event.shouldCommit()) {
+			event.transformation = transformation();
+			event.operation = operationLabel();
+			event.commit();
+		}
+		return cipher;
 	}
 
 	private Cipher getCipherWithKeyAndIv() {
 		try {
-			SecretKeySpec keySpec = new SecretKeySpec(_key, _algorithm.label());
-			IvParameterSpec ivSpec = new IvParameterSpec(_iv);
-			Cipher cipher = Cipher.getInstance(transformation());
-			cipher.init(_operation, keySpec, ivSpec);
-			_info.printf("KEY %s\n", HexString.toString(_key));
-			_info.printf(" IV %s\n", HexString.toString(_iv));
+			Cipher cipher = acquireCipher(new IvParameterSpec(_iv));
+			printKeyAndIv();
 			return cipher;
 		} catch (Exception e) {
 			throw new RuntimeException(e.getMessage());
 		}
 	}
 
+	private void printKeyAndIv() {
+		_info.printf("KEY %s\n", HexString.toString(_key));
+		_info.printf(" IV %s\n", HexString.toString(_iv));
+	}
+
 	private Cipher getCipherWithKey() {
 		try {
-			SecretKeySpec keySpec = new SecretKeySpec(_key, _algorithm.label());
-			Cipher cipher = Cipher.getInstance(transformation());
-			cipher.init(_operation, keySpec);
+			Cipher cipher = acquireCipher(null);
 			_info.printf("KEY %s\n", HexString.toString(_key));
 			return cipher;
 		} catch (Exception e) {
@@ -361,29 +1865,85 @@ public class MyCryptographyUtilityApplication {
 			if (_tagLength == 0) {
 				_tagLength = AES_GCM_TAG_LENGTH_MIN;
 			}
-			SecretKeySpec keySpec = new SecretKeySpec(_key, _algorithm.label());
-			GCMParameterSpec gcmParameterSpec = new GCMParameterSpec(_tagLength * 8, _nonce);
-			Cipher cipher = Cipher.getInstance(transformation());
-			cipher.init(_operation, keySpec, gcmParameterSpec);
-			_info.printf("  KEY %s\n", HexString.toString(_key));
-			_info.printf("NONCE %s\n", HexString.toString(_nonce));
-			_info.printf("  TAG %d\n", _tagLength);
+			Cipher cipher = acquireCipher(new GCMParameterSpec(_tagLength * 8, _nonce));
 			if (_aad != null) {
 				cipher.updateAAD(_aad);
-				_info.printf("  AAD %s\n", HexString.toString(_aad));
 			}
+			printGcmParameters(_tagLength);
 			return cipher;
 		} catch (Exception e) {
 			throw new RuntimeException(e.getMessage());
 		}
 	}
 
+	private void printGcmParameters(int tagLength) {
+		_info.printf("  KEY %s\n", HexString.toString(_key));
+		_info.printf("NONCE %s\n", HexString.toString(_nonce));
+		_info.printf("  TAG %d\n", tagLength);
+		if (_aad != null) {
+			_info.printf("  AAD %s\n", HexString.toString(_aad));
+		}
+	}
+
+	/**
+	 * Takes a Cipher out of the shared cache and initializes it.
+	 */
+	private Cipher acquireCipher(AlgorithmParameterSpec spec) throws Exception {
+		SecretKeySpec keySpec = new SecretKeySpec(_key, _algorithm.label());
+		Cipher cipher = CipherCache.shared().acquire(transformation(), _cipherProvider, _key);
+		try {
+			initCipher(cipher, keySpec, spec);
+		} catch (InvalidAlgorithmParameterException e) {
+			// a GCM instance refuses to encrypt twice with the same key and nonce
+			cipher = CipherProviders.getInstance(transformation(), _cipherProvider);
+			initCipher(cipher, keySpec, spec);
+		}
+		_cipher = cipher;
+		return cipher;
+	}
+
+	private void initCipher(Cipher cipher, SecretKeySpec keySpec, AlgorithmParameterSpec spec) throws Exception {
+		if (spec != null) {
+			cipher.init(_operation, keySpec, spec);
+		} else {
+			cipher.init(_operation, keySpec);
+		}
+	}
+
+	/**
+	 * Gives the Cipher back to the shared cache.
+	 * GCM decryption is not cached because its Cipher buffers the whole ciphertext.
+	 */
+	private void releaseCipher() {
+		if (_cipher != null) {
+			if (_mode != OperationalMode.GCM || _operation != Cipher.DECRYPT_MODE) {
+				CipherCache.shared().release(transformation(), _cipherProvider, _key, _cipher);
+			}
+			_cipher = null;
+		}
+	}
+
 	private String transformation() {
-		return String.format("%s/%s/%s", _algorithm.label(), _mode.label(), _padding.label());
+		return _transformation;
 	}
 
 	private static final String SHA_256 = "SHA-256";
 
+	/**
+	 * Resolves the given file name against the working directory of the job, if any.
+	 */
+	private Path resolvePath(String fileName) {
+		return _workingDirectory != null ? _workingDirectory.resolve(fileName) : Paths.get(fileName);
+	}
+
+	private byte[] readKeyFile(String fileName) {
+		try {
+			return HexString.parse(new String(Files.readAllBytes(resolvePath(fileName)), StandardCharsets.US_ASCII));
+		} catch (Exception e) {
+			throw new RuntimeException(String.format("Failed to read key file: %s", fileName), e);
+		}
+	}
+
 	private static byte[] generate32Bytes(String value) {
 		try {
 			if (value == null) {
@@ -397,98 +1957,186 @@ public class MyCryptographyUtilityApplication {
 	}
 
 	public CommandLineParameters commandLineParameters() {
-		return (new CommandLineParameters())
-				.add("aes-256-cbc", transformationDescription(Algorithm.AES, OperationalMode.CBC, Padding.PKCS5, 256), (p) -> {
-					setTransformation(Algorithm.AES, OperationalMode.CBC, Padding.PKCS5, AES_256_KEY_LENGTH);
-					return true;
-				})
-				.add("aes-192-cbc", transformationDescription(Algorithm.AES, OperationalMode.CBC, Padding.PKCS5, 192), (p) -> {
-					setTransformation(Algorithm.AES, OperationalMode.CBC, Padding.PKCS5, AES_192_KEY_LENGTH);
-					return true;
-				})
-				.add("aes-128-cbc", transformationDescription(Algorithm.AES, OperationalMode.CBC, Padding.PKCS5, 128), (p) -> {
-					setTransformation(Algorithm.AES, OperationalMode.CBC, Padding.PKCS5, AES_128_KEY_LENGTH);
-					return true;
-				})
-				.add("aes-256-ecb", transformationDescription(Algorithm.AES, OperationalMode.ECB, Padding.PKCS5, 256), (p) -> {
-					setTransformation(Algorithm.AES, OperationalMode.ECB, Padding.PKCS5, AES_256_KEY_LENGTH);
-					return true;
+		CommandLineParameters parameters = new CommandLineParameters();
+		// one handler for all the transformations, and their descriptions formatted only for the help
+		Function<CommandLineParameters, Boolean> transformation = (p) -> {
+			Transformation t = Transformation.find(p.argument());
+			setTransformation(t.algorithm(), t.mode(), t.padding(), t.keyLength());
+			return true;
+		};
+		for (Transformation t : Transformation.values()) {
+			parameters.add(t.label(), () -> transformationDescription(t.algorithm(), t.mode(), t.padding(), t.keyBits()), transformation);
+		}
+		return parameters
+				.add("-encrypt", "PATH", "specifies input file to encrypt\nreads from standard input if a hyphen is specified", (p) -> {
+					if (p.next()) {
+						setInputPath(Cipher.ENCRYPT_MODE, p.argument());
+						return true;
+					} else {
+						throw new RuntimeException("Input file is not specified.");
+					}
 				})
-				.add("aes-192-ecb", transformationDescription(Algorithm.AES, OperationalMode.ECB, Padding.PKCS5, 192), (p) -> {
-					setTransformation(Algorithm.AES, OperationalMode.ECB, Padding.PKCS5, AES_192_KEY_LENGTH);
-					return true;
+				.add("-decrypt", "PATH", "specifies input file to decrypt\nreads from standard input if a hyphen is specified", (p) -> {
+					if (p.next()) {
+						setInputPath(Cipher.DECRYPT_MODE, p.argument());
+						return true;
+					} else {
+						throw new RuntimeException("Input file is not specified.");
+					}
 				})
-				.add("aes-128-ecb", transformationDescription(Algorithm.AES, OperationalMode.ECB, Padding.PKCS5, 128), (p) -> {
-					setTransformation(Algorithm.AES, OperationalMode.ECB, Padding.PKCS5, AES_128_KEY_LENGTH);
-					return true;
+				.add("-verify", "PATH", "decrypts input file only to check its integrity, writing nothing\nfails if the authentication tag of GCM does not match\nworks with -recursive and -batch", (p) -> {
+					if (p.next()) {
+						setInputPath(Cipher.DECRYPT_MODE, p.argument());
+						setFlags(FLAG_VERIFY);
+						return true;
+					} else {
+						throw new RuntimeException("Input file is not specified.");
+					}
 				})
-				.add("aes-256-cfb", transformationDescription(Algorithm.AES, OperationalMode.CFB8, Padding.NONE, 256), (p) -> {
-					setTransformation(Algorithm.AES, OperationalMode.CFB8, Padding.NONE, AES_256_KEY_LENGTH);
-					return true;
+				.add("-fanout", "HEXSTRING PATH", "encrypts input file with the key into the output file\ncan be specified repeatedly to encrypt for many recipients while reading input only once", (p) -> {
+					if (p.next()) {
+						byte[] key = p.binaryArgument();
+						if (p.next()) {
+							addFanout(key, p.argument());
+							return true;
+						}
+					}
+					throw new RuntimeException("Key and output file of fan-out are not specified.");
 				})
-				.add("aes-192-cfb", transformationDescription(Algorithm.AES, OperationalMode.CFB8, Padding.NONE, 192), (p) -> {
-					setTransformation(Algorithm.AES, OperationalMode.CFB8, Padding.NONE, AES_192_KEY_LENGTH);
-					return true;
+				.add("-out", "PATH", "specifies output file\nwrites to standard output if a hyphen is specified", (p) -> {
+					if (p.next()) {
+						setOutputPath(p.argument());
+						return true;
+					} else {
+						throw new RuntimeException("Output file is not specified.");
+					}
 				})
-				.add("aes-128-cfb", transformationDescription(Algorithm.AES, OperationalMode.CFB8, Padding.NONE, 128), (p) -> {
-					setTransformation(Algorithm.AES, OperationalMode.CFB8, Padding.NONE, AES_128_KEY_LENGTH);
-					return true;
+				.add("-overwrite", "PATH", "specifies output file\nwrites to file even if it exists", (p) -> {
+					if (p.next()) {
+						setOutputPath(p.argument());
+						setFlags(FLAG_OVERWRITE);
+						return true;
+					} else {
+						throw new RuntimeException("Output file is not specified.");
+					}
 				})
-				.add("aes-256-ofb", transformationDescription(Algorithm.AES, OperationalMode.OFB8, Padding.NONE, 256), (p) -> {
-					setTransformation(Algorithm.AES, OperationalMode.OFB8, Padding.NONE, AES_256_KEY_LENGTH);
-					return true;
+				.add("-append", "PATH", "specifies output file\nencrypts onto the end of the file if it exists\nrequires CTR mode or segmented format, which is then created appendable", (p) -> {
+					if (p.next()) {
+						setOutputPath(p.argument());
+						setFlags(FLAG_APPEND);
+						return true;
+					} else {
+						throw new RuntimeException("Output file is not specified.");
+					}
 				})
-				.add("aes-192-ofb", transformationDescription(Algorithm.AES, OperationalMode.OFB8, Padding.NONE, 192), (p) -> {
-					setTransformation(Algorithm.AES, OperationalMode.OFB8, Padding.NONE, AES_192_KEY_LENGTH);
+				.add("-segmented", "writes/reads GCM ciphertext in segmented format\nsegments are processed in parallel with bounded memory", (p) -> {
+					setFlags(FLAG_SEGMENTED);
 					return true;
 				})
-				.add("aes-128-ofb", transformationDescription(Algorithm.AES, OperationalMode.OFB8, Padding.NONE, 128), (p) -> {
-					setTransformation(Algorithm.AES, OperationalMode.OFB8, Padding.NONE, AES_128_KEY_LENGTH);
-					return true;
+				.add("-segsize", "NUMBER", String.format("specifies segment size in bytes for segmented format\ndefault=%d min=%d max=%d", SegmentedGcm.DEFAULT_SEGMENT_SIZE, SegmentedGcm.MIN_SEGMENT_SIZE, SegmentedGcm.MAX_SEGMENT_SIZE), (p) -> {
+					if (p.next()) {
+						if (!hasSegmentSize()) {
+							setSegmentSize(p.intArgument());
+						} else {
+							throw new RuntimeException("Segment size is already specified.");
+						}
+						return true;
+					} else {
+						throw new RuntimeException("Segment size is not specified.");
+					}
 				})
-				.add("aes-256-gcm", transformationDescription(Algorithm.AES, OperationalMode.GCM, Padding.NONE, 256), (p) -> {
-					setTransformation(Algorithm.AES, OperationalMode.GCM, Padding.NONE, AES_256_KEY_LENGTH);
-					return true;
+				.add("-range", "START:LENGTH", "decrypts only LENGTH bytes of plaintext from offset START\nrequires CTR mode or segmented format", (p) -> {
+					if (p.next()) {
+						if (!hasRange()) {
+							setRange(p.argument());
+						} else {
+							throw new RuntimeException("Range is already specified.");
+						}
+						return true;
+					} else {
+						throw new RuntimeException("Range is not specified.");
+					}
 				})
-				.add("aes-192-gcm", transformationDescription(Algorithm.AES, OperationalMode.GCM, Padding.NONE, 192), (p) -> {
-					setTransformation(Algorithm.AES, OperationalMode.GCM, Padding.NONE, AES_192_KEY_LENGTH);
+				.add("-mmap", "reads/writes files through memory-mapped windows", (p) -> {
+					setFlags(FLAG_MAPPED);
 					return true;
 				})
-				.add("aes-128-gcm", transformationDescription(Algorithm.AES, OperationalMode.GCM, Padding.NONE, 128), (p) -> {
-					setTransformation(Algorithm.AES, OperationalMode.GCM, Padding.NONE, AES_128_KEY_LENGTH);
-					return true;
+				.add("-compress", "CODEC", "compresses plaintext in independent blocks on multiple threads before encryption\ndecryption expands it automatically\ndeflate: Deflate at the default level\nfast: Deflate at the fastest level", (p) -> {
+					if (p.next()) {
+						if (!checkFlags(FLAG_COMPRESSED)) {
+							setCompression(p.argument());
+						} else {
+							throw new RuntimeException("Compression is already specified.");
+						}
+						return true;
+					} else {
+						throw new RuntimeException("Compression is not specified.");
+					}
 				})
-				.add("-encrypt", "PATH", "specifies input file to encrypt\nreads from standard input if a hyphen is specified", (p) -> {
+				.add("-armor", "CODEC", "writes ciphertext as text on encryption and reads it back on decryption\nhex: hexadecimal digits, 64 per line\nbase64: Base64, 76 characters per line", (p) -> {
 					if (p.next()) {
-						setInputPath(Cipher.ENCRYPT_MODE, p.argument());
+						if (!hasArmor()) {
+							setArmor(Armor.parse(p.argument()));
+						} else {
+							throw new RuntimeException("Armor is already specified.");
+						}
 						return true;
 					} else {
-						throw new RuntimeException("Input file is not specified.");
+						throw new RuntimeException("Armor is not specified.");
 					}
 				})
-				.add("-decrypt", "PATH", "specifies input file to decrypt\nreads from standard input if a hyphen is specified", (p) -> {
+				.add("-digest", "NAME[,NAME...]", "computes digests of input and output in the same pass and prints them with the byte counts\nNAME: SHA-256 or another MessageDigest algorithm, crc32, crc32c or adler32", (p) -> {
 					if (p.next()) {
-						setInputPath(Cipher.DECRYPT_MODE, p.argument());
+						if (!hasDigests()) {
+							setDigests(Digests.parse(p.argument()));
+						} else {
+							throw new RuntimeException("Digest is already specified.");
+						}
 						return true;
 					} else {
-						throw new RuntimeException("Input file is not specified.");
+						throw new RuntimeException("Digest is not specified.");
 					}
 				})
-				.add("-out", "PATH", "specifies output file\nwrites to standard output if a hyphen is specified", (p) -> {
+				.add("-provider", "NAME", String.format("specifies JCE provider to create ciphers of the transformation\n%s: measures installed providers once and picks the fastest", PROVIDER_FASTEST), (p) -> {
 					if (p.next()) {
-						setOutputPath(p.argument());
+						if (!hasProvider()) {
+							setProvider(p.argument());
+						} else {
+							throw new RuntimeException("Provider is already specified.");
+						}
 						return true;
 					} else {
-						throw new RuntimeException("Output file is not specified.");
+						throw new RuntimeException("Provider is not specified.");
 					}
 				})
-				.add("-overwrite", "PATH", "specifies output file\nwrites to file even if it exists", (p) -> {
+				.add("-speed", "measures throughput of transformations with every installed provider for each buffer size\na transformation, -provider and -bufsize narrow down the measurement", (p) -> {
+					setFlags(FLAG_SPEED);
+					return true;
+				})
+				.add("-pipeline", "reads, encrypts/decrypts and writes on separate threads", (p) -> {
+					setFlags(FLAG_PIPELINED);
+					return true;
+				})
+				.add("-stats", "prints wall-clock time, CPU time and allocated bytes of each phase as JSON", (p) -> {
+					setFlags(FLAG_STATS);
+					return true;
+				})
+				.add("-bufsize", "SIZE", String.format("specifies chunk size of reads, e.g. 8192, 64K or 1M\nauto: picks from file size and file system block size\nprobe: times reads of the input file to pick\ndefault=%d", CipherTransfer.DEFAULT_BUFFER_SIZE), (p) -> {
 					if (p.next()) {
-						setOutputPath(p.argument());
-						setFlags(FLAG_OVERWRITE);
+						if (!hasBufferSize()) {
+							if ("auto".equalsIgnoreCase(p.argument())) {
+								setBufferSize(BUFFER_SIZE_AUTO);
+							} else if ("probe".equalsIgnoreCase(p.argument())) {
+								setBufferSize(BUFFER_SIZE_PROBE);
+							} else {
+								setBufferSize(p.sizeArgument());
+							}
+						} else {
+							throw new RuntimeException("Buffer size is already specified.");
+						}
 						return true;
 					} else {
-						throw new RuntimeException("Output file is not specified.");
+						throw new RuntimeException("Buffer size is not specified.");
 					}
 				})
 				.add("-key", "HEXSTRING", "specifies private key", (p) -> {
@@ -527,10 +2175,22 @@ public class MyCryptographyUtilityApplication {
 						throw new RuntimeException("Nonce is not specified.");
 					}
 				})
+				.add("-keyfile", "PATH", "specifies file containing private key in hexadecimal", (p) -> {
+					if (p.next()) {
+						if (!hasKey()) {
+							setKey(readKeyFile(p.argument()));
+							return true;
+						} else {
+							throw new RuntimeException("Private key is already specified.");
+						}
+					} else {
+						throw new RuntimeException("Key file is not specified.");
+					}
+				})
 				.add("-keyphrase", "TEXT", "specifies text phrase to generate private key", (p) -> {
 					if (p.next()) {
 						if (!hasKey()) {
-							setKey(generate32Bytes(p.argument()));
+							setKeyPhrase(p.argument());
 							return true;
 						} else {
 							throw new RuntimeException("Private key is already specified.");
@@ -539,6 +2199,30 @@ public class MyCryptographyUtilityApplication {
 						throw new RuntimeException("Key phrase is not specified.");
 					}
 				})
+				.add("-kdf", "NAME", String.format("specifies how -keyphrase derives private key\nsha256: single SHA-256 of the phrase (default)\npbkdf2: %s with a random salt stored in the output", DerivedKeyCache.ALGORITHM), (p) -> {
+					if (p.next()) {
+						if (!checkFlags(FLAG_KDF)) {
+							setKdf(p.argument());
+						} else {
+							throw new RuntimeException("Key derivation function is already specified.");
+						}
+						return true;
+					} else {
+						throw new RuntimeException("Key derivation function is not specified.");
+					}
+				})
+				.add("-iterations", "NUMBER", String.format("specifies number of iterations of PBKDF2\ndefault=%d", PBKDF2_ITERATIONS_DEFAULT), (p) -> {
+					if (p.next()) {
+						if (!hasIterations()) {
+							setIterations(p.intArgument());
+						} else {
+							throw new RuntimeException("Number of iterations is already specified.");
+						}
+						return true;
+					} else {
+						throw new RuntimeException("Number of iterations is not specified.");
+					}
+				})
 				.add("-ivphrase", "TEXT", "specifies text phrase to generate initial vector", (p) -> {
 					if (p.next()) {
 						if (!hasIv()) {
@@ -599,8 +2283,98 @@ public class MyCryptographyUtilityApplication {
 						throw new RuntimeException("Additional authentication data is not specified with text.");
 					}
 				})
+				.add("-batch", "PATH", "specifies manifest file to process many jobs in one process\neach line holds parameters of a job, such as -e IN -o OUT -keyfile KEY\nparameters given outside the manifest apply to every job", (p) -> {
+					if (p.next()) {
+						if (!isBatch()) {
+							setBatchPath(p.argument());
+							return true;
+						} else {
+							throw new RuntimeException("Manifest file is already specified.");
+						}
+					} else {
+						throw new RuntimeException("Manifest file is not specified.");
+					}
+				})
+				.add("-recursive", "encrypts/decrypts every file under the input directory\ninto the mirrored path under the output directory", (p) -> {
+					setFlags(FLAG_RECURSIVE);
+					return true;
+				})
+				.add("-incremental", "PATH", "keeps index of files processed by -recursive at PATH\nskips files whose content and parameters have not changed since, and replaces outputs of the others", (p) -> {
+					if (p.next()) {
+						if (!isIncremental()) {
+							setIndexPath(p.argument());
+							return true;
+						} else {
+							throw new RuntimeException("Index file is already specified.");
+						}
+					} else {
+						throw new RuntimeException("Index file is not specified.");
+					}
+				})
+				.add("-threads", "NUMBER", "specifies number of worker threads\ndefault=number of processors", (p) -> {
+					if (p.next()) {
+						if (!hasThreads()) {
+							setThreads(p.intArgument());
+						} else {
+							throw new RuntimeException("Number of threads is already specified.");
+						}
+						return true;
+					} else {
+						throw new RuntimeException("Number of threads is not specified.");
+					}
+				})
+				.add("-vthreads", "runs each job of -batch/-recursive on its own virtual thread (Java 21 or later)", (p) -> {
+					setFlags(FLAG_VIRTUAL_THREADS);
+					return true;
+				})
+				.add("-maxopen", "NUMBER", String.format("specifies maximum number of jobs of -batch/-recursive in flight\ndefault=%d with -vthreads, otherwise unlimited", DEFAULT_MAX_OPEN), (p) -> {
+					if (p.next()) {
+						if (!hasMaxOpen()) {
+							setMaxOpen(p.intArgument());
+						} else {
+							throw new RuntimeException("Maximum number of open files is already specified.");
+						}
+						return true;
+					} else {
+						throw new RuntimeException("Maximum number of open files is not specified.");
+					}
+				})
+				.add("-server", "PATH", "serves jobs over Unix domain socket at PATH until terminated\nparameters given to the server apply to every job", (p) -> {
+					if (p.next()) {
+						if (!hasSocketPath()) {
+							setSocketPath(p.argument());
+							setFlags(FLAG_SERVER);
+							return true;
+						} else {
+							throw new RuntimeException("Socket file is already specified.");
+						}
+					} else {
+						throw new RuntimeException("Socket file is not specified.");
+					}
+				})
+				.add("-sharekey", "lets jobs of -server use the key given to the server when they specify none\nany local user who can connect to the socket can then use the key", (p) -> {
+					setFlags(FLAG_SHARE_KEY);
+					return true;
+				})
+				.add("-client", "PATH ...", "sends the following parameters to the server at PATH as a job", (p) -> {
+					if (p.next()) {
+						if (!hasSocketPath()) {
+							setSocketPath(p.argument());
+							List<String> args = new ArrayList<>();
+							while (p.next()) {
+								args.add(p.argument());
+							}
+							_clientArgs = args.toArray(new String[args.size()]);
+							return true;
+						} else {
+							throw new RuntimeException("Socket file is already specified.");
+						}
+					} else {
+						throw new RuntimeException("Socket file is not specified.");
+					}
+				})
 				.add("-help", "prints this message", (p) -> {
-					help(p);
+					setFlags(FLAG_HELP);
 					return false;
 				})
 				.addAlias("-e", "-encrypt")
@@ -639,9 +2413,9 @@ public class MyCryptographyUtilityApplication {
 		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
 		try {
 			CommandLineParameters parameters = app.commandLineParameters();
-			if (args.length == 0) {
+			if (args.length == 0 || !parameters.process(args)) {
 				help(parameters);
-			} else if (parameters.process(args)) {
+			} else {
 				app.run();
 			}
 			System.exit(0);
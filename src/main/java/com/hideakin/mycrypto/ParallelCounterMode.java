@@ -0,0 +1,210 @@
+package com.hideakin.mycrypto;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.Provider;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encrypts/decrypts a file in CTR mode on a fork/join pool.
+ *
+ * The input is cut into segments aligned to the cipher block size.
+ * Each segment starts its own Cipher at the counter value of its first block
+ * and writes its output to the same offset of the output file.
+ */
+public class ParallelCounterMode {
+
+	public static final int BLOCK_SIZE = 16;
+	public static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private final String _transformation;
+	private final Provider _provider;
+	private final SecretKeySpec _keySpec;
+	private final byte[] _iv;
+	private final int _operation;
+	private final ForkJoinPool _pool;
+
+	public ParallelCounterMode(String transformation, SecretKeySpec keySpec, byte[] iv, int operation) {
+		this(transformation, null, keySpec, iv, operation, ForkJoinPool.commonPool());
+	}
+
+	public ParallelCounterMode(String transformation, Provider provider, SecretKeySpec keySpec, byte[] iv, int operation) {
+		this(transformation, provider, keySpec, iv, operation, ForkJoinPool.commonPool());
+	}
+
+	public ParallelCounterMode(String transformation, Provider provider, SecretKeySpec keySpec, byte[] iv, int operation, ForkJoinPool pool) {
+		_transformation = transformation;
+		_provider = provider;
+		_keySpec = keySpec;
+		_iv = iv;
+		_operation = operation;
+		_pool = pool;
+	}
+
+	/**
+	 * Transforms length bytes of the input channel into the output channel.
+	 * Both channels are accessed with absolute positions only.
+	 */
+	public void transfer(FileChannel in, FileChannel out, long length) {
+		long count = (length + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+		if (count > 0) {
+			_pool.invoke(new Segments(in, out, length, 0, count));
+		}
+	}
+
+	/**
+	 * Transforms length bytes of the input channel starting at the given offset into the output stream.
+	 * The Cipher starts at the counter block of the offset and discards the keystream before it within the block,
+	 * so that only the requested range is read.
+	 * Returns the number of bytes read.
+	 */
+	public long transferRange(FileChannel in, long start, long length, OutputStream out) throws Exception {
+		long end = Math.min(start + length, in.size());
+		if (start < 0 || length < 0) {
+			throw new RuntimeException("Range is out of bounds.");
+		} else if (start >= end) {
+			return 0L;
+		}
+		Cipher cipher = CipherProviders.getInstance(_transformation, _provider);
+		cipher.init(_operation, _keySpec, new IvParameterSpec(counterAt(_iv, start / BLOCK_SIZE)));
+		int skip = (int)(start % BLOCK_SIZE);
+		if (skip > 0) {
+			cipher.update(new byte[skip]);
+		}
+		byte[] src = new byte[CHUNK_SIZE];
+		byte[] dst = new byte[CHUNK_SIZE];
+		long position = start;
+		while (position < end) {
+			int n = (int)Math.min(CHUNK_SIZE, end - position);
+			ByteBuffer buf = ByteBuffer.wrap(src, 0, n);
+			while (buf.hasRemaining()) {
+				if (in.read(buf, position + buf.position()) < 0) {
+					throw new RuntimeException("Input file was truncated while processing.");
+				}
+			}
+			int m = cipher.update(src, 0, n, dst, 0);
+			out.write(dst, 0, m);
+			position += n;
+		}
+		return end - start;
+	}
+
+	/**
+	 * Encrypts the input stream onto the end of the file, continuing the keystream where the file ends.
+	 * The original length is saved to the journal first, so that an interrupted append can be cut off.
+	 * Returns the number of bytes written.
+	 */
+	public long append(InputStream in, FileChannel file, Path journal) throws Exception {
+		long start = file.size();
+		AppendJournal.begin(file, journal, start);
+		Cipher cipher = CipherProviders.getInstance(_transformation, _provider);
+		cipher.init(_operation, _keySpec, new IvParameterSpec(counterAt(_iv, start / BLOCK_SIZE)));
+		int skip = (int)(start % BLOCK_SIZE);
+		if (skip > 0) {
+			cipher.update(new byte[skip]);
+		}
+		byte[] src = new byte[CHUNK_SIZE];
+		byte[] dst = new byte[CHUNK_SIZE];
+		long position = start;
+		int n;
+		while ((n = in.read(src)) >= 0) {
+			int m = cipher.update(src, 0, n, dst, 0);
+			ByteBuffer buf = ByteBuffer.wrap(dst, 0, m);
+			while (buf.hasRemaining()) {
+				file.write(buf, position + buf.position());
+			}
+			position += m;
+		}
+		AppendJournal.commit(file, journal);
+		return position - start;
+	}
+
+	/**
+	 * Returns the counter block for the given block index,
+	 * i.e. the initial counter block plus index as a 128-bit big-endian integer.
+	 */
+	public static byte[] counterAt(byte[] iv, long index) {
+		byte[] counter = iv.clone();
+		long carry = index;
+		for (int i = counter.length - 1; i >= 0 && carry != 0; i--) {
+			long sum = (counter[i] & 0xFFL) + (carry & 0xFFL);
+			counter[i] = (byte)sum;
+			carry = (carry >>> 8) + (sum >>> 8);
+		}
+		return counter;
+	}
+
+	@SuppressWarnings("serial")
+	private class Segments extends RecursiveAction {
+
+		private final FileChannel _in;
+		private final FileChannel _out;
+		private final long _length;
+		private final long _from;
+		private final long _to;
+
+		public Segments(FileChannel in, FileChannel out, long length, long from, long to) {
+			_in = in;
+			_out = out;
+			_length = length;
+			_from = from;
+			_to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (_to - _from > 1) {
+				long mid = (_from + _to) >>> 1;
+				invokeAll(new Segments(_in, _out, _length, _from, mid), new Segments(_in, _out, _length, mid, _to));
+			} else {
+				try {
+					long start = _from * SEGMENT_SIZE;
+					long end = Math.min(start + SEGMENT_SIZE, _length);
+					process(_in, _out, start, end);
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new RuntimeException(e.getMessage(), e);
+				}
+			}
+		}
+
+	}
+
+	private void process(FileChannel in, FileChannel out, long start, long end) throws Exception {
+		byte[] key = _keySpec.getEncoded();
+		Cipher cipher = CipherCache.shared().acquire(_transformation, _provider, key);
+		cipher.init(_operation, _keySpec, new IvParameterSpec(counterAt(_iv, start / BLOCK_SIZE)));
+		ByteBuffer src = ByteBuffer.allocate(CHUNK_SIZE);
+		ByteBuffer dst = ByteBuffer.allocate(CHUNK_SIZE);
+		long position = start;
+		while (position < end) {
+			src.clear();
+			src.limit((int)Math.min(CHUNK_SIZE, end - position));
+			while (src.hasRemaining()) {
+				if (in.read(src, position + src.position()) < 0) {
+					throw new RuntimeException("Input file was truncated while processing.");
+				}
+			}
+			src.flip();
+			dst.clear();
+			cipher.update(src, dst);
+			dst.flip();
+			while (dst.hasRemaining()) {
+				out.write(dst, position + dst.position());
+			}
+			position += dst.limit();
+		}
+		CipherCache.shared().release(_transformation, _provider, key, cipher);
+	}
+
+}
@@ -0,0 +1,107 @@
+package com.hideakin.mycrypto;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Wall-clock time, CPU time and allocated bytes of the consecutive phases of one job.
+ *
+ * start() begins the first phase and every lap() closes the current phase and begins the next one.
+ * CPU time and allocation are those of the calling thread; work done by other threads is not counted.
+ * A value that the JVM cannot measure is reported as -1.
+ */
+public class PhaseStats {
+
+	public static final PhaseStats DISABLED = new PhaseStats(false);
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private final boolean _enabled;
+	private final Map<String, long[]> _phases = new LinkedHashMap<>();
+	private long _wall;
+	private long _cpu;
+	private long _allocated;
+
+	public PhaseStats() {
+		this(true);
+	}
+
+	private PhaseStats(boolean enabled) {
+		_enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return _enabled;
+	}
+
+	public void start() {
+		if (_enabled) {
+			_wall = System.nanoTime();
+			_cpu = cpuTime();
+			_allocated = allocatedBytes();
+		}
+	}
+
+	/**
+	 * Adds the time since the previous start() or lap() to the given phase.
+	 */
+	public void lap(String phase) {
+		if (_enabled) {
+			long wall = System.nanoTime();
+			long cpu = cpuTime();
+			long allocated = allocatedBytes();
+			long[] values = _phases.computeIfAbsent(phase, (k) -> new long[3]);
+			values[0] += wall - _wall;
+			values[1] = cpu < 0 ? -1 : values[1] + cpu - _cpu;
+			values[2] = allocated < 0 ? -1 : values[2] + allocated - _allocated;
+			_wall = wall;
+			_cpu = cpu;
+			_allocated = allocated;
+		}
+	}
+
+	/**
+	 * Returns a JSON object with the totals, the throughput in MB/s (10^6 bytes per second of wall-clock time, input bytes)
+	 * and the phases in the order they were first recorded. Times are in nanoseconds.
+	 */
+	public String toJson(String transformation, String operation, long inBytes, long outBytes) {
+		long[] total = new long[3];
+		StringBuilder phases = new StringBuilder();
+		for (Map.Entry<String, long[]> entry : _phases.entrySet()) {
+			long[] values = entry.getValue();
+			for (int i = 0; i < total.length; i++) {
+				total[i] = total[i] < 0 || values[i] < 0 ? -1 : total[i] + values[i];
+			}
+			if (phases.length() > 0) {
+				phases.append(',');
+			}
+			phases.append(String.format("\"%s\":%s", entry.getKey(), values(values)));
+		}
+		double seconds = total[0] / 1e9;
+		double mbPerSec = seconds > 0 ? inBytes / seconds / 1e6 : 0.0;
+		return String.format(Locale.ROOT, "{\"transformation\":\"%s\",\"operation\":\"%s\",\"inBytes\":%d,\"outBytes\":%d,\"mbPerSec\":%.3f,\"total\":%s,\"phases\":{%s}}",
+				transformation, operation, inBytes, outBytes, mbPerSec, values(total), phases);
+	}
+
+	private static String values(long[] values) {
+		return String.format("{\"wallNanos\":%d,\"cpuNanos\":%d,\"allocatedBytes\":%d}", values[0], values[1], values[2]);
+	}
+
+	private static long cpuTime() {
+		return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+	}
+
+	private static long allocatedBytes() {
+		if (THREADS instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)THREADS;
+			if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+				return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,208 @@
+package com.hideakin.mycrypto;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+
+import com.hideakin.mycrypto.jfr.ChunkEvent;
+import com.hideakin.mycrypto.jfr.Events;
+
+/**
+ * Pumps bytes from an input stream through a Cipher into an output stream
+ * with the reading, the ciphering and the writing running on separate threads.
+ *
+ * The stages hand buffers over through bounded queues.
+ * A fixed number of buffers circulates on each side of the Cipher,
+ * so a stage that runs ahead blocks until the next stage gives a buffer back.
+ * Once a stage fails, the others are interrupted but not waited for,
+ * since a read from standard input, for one, does not return on interruption.
+ */
+public class PipelinedTransfer {
+
+	public static final int DEFAULT_SLOTS = 4;
+
+	private static class Slot {
+
+		byte[] data;
+		int length;
+
+		public Slot(int size) {
+			data = new byte[size];
+		}
+
+	}
+
+	private static final Slot END = new Slot(0);
+
+	private final Cipher _cipher;
+	private final ArrayBlockingQueue<Slot> _freeIn;
+	private final ArrayBlockingQueue<Slot> _fullIn;
+	private final ArrayBlockingQueue<Slot> _freeOut;
+	private final ArrayBlockingQueue<Slot> _fullOut;
+	private Thread[] _threads;
+	private Throwable _failure;
+	private long _inBytes = 0L;
+	private long _outBytes = 0L;
+	private long _chunks = 0L;
+
+	public PipelinedTransfer(Cipher cipher, int bufferSize, int slots) {
+		_cipher = cipher;
+		_freeIn = new ArrayBlockingQueue<>(slots);
+		_fullIn = new ArrayBlockingQueue<>(slots + 1);
+		_freeOut = new ArrayBlockingQueue<>(slots);
+		_fullOut = new ArrayBlockingQueue<>(slots + 1);
+		int outputSize = cipher.getOutputSize(bufferSize);
+		for (int i = 0; i < slots; i++) {
+			_freeIn.add(new Slot(bufferSize));
+			_freeOut.add(new Slot(outputSize));
+		}
+	}
+
+	public long inBytes() {
+		return _inBytes;
+	}
+
+	public long outBytes() {
+		return _outBytes;
+	}
+
+	/**
+	 * Feeds the whole input stream to the Cipher, finishes it and writes all the output.
+	 * The Cipher runs on the calling thread.
+	 */
+	public void transfer(InputStream in, OutputStream out) throws Exception {
+		Thread reader = new Thread(() -> read(in), "PipelinedTransfer-reader");
+		Thread writer = new Thread(() -> write(out), "PipelinedTransfer-writer");
+		_threads = new Thread[] { Thread.currentThread(), reader, writer };
+		reader.setDaemon(true);
+		writer.setDaemon(true);
+		reader.start();
+		writer.start();
+		try {
+			crypt();
+		} catch (Throwable t) {
+			fail(t);
+		}
+		join(reader);
+		join(writer);
+		// clears the interruption caused by a failing stage
+		Thread.interrupted();
+		Throwable t = failure();
+		if (t instanceof Exception) {
+			throw (Exception)t;
+		} else if (t != null) {
+			throw new RuntimeException(t.getMessage(), t);
+		}
+	}
+
+	private void read(InputStream in) {
+		try {
+			while (true) {
+				Slot slot = _freeIn.take();
+				int n = in.read(slot.data);
+				if (n < 0) {
+					break;
+				}
+				slot.length = n;
+				_inBytes += n;
+				_fullIn.put(slot);
+			}
+			_fullIn.put(END);
+		} catch (Throwable t) {
+			fail(t);
+		}
+	}
+
+	private void crypt() throws Exception {
+		while (true) {
+			Slot src = _fullIn.take();
+			if (src == END) {
+				break;
+			}
+			Slot dst = _freeOut.take();
+			ChunkEvent event = null;
+			if (Events.enabled() && ChunkEvent.isSampled(_chunks)) {
+				event = new ChunkEvent();
+				event.begin();
+			}
+			try {
+				dst.length = _cipher.update(src.data, 0, src.length, dst.data, 0);
+			} catch (ShortBufferException e) {
+				dst.data = new byte[_cipher.getOutputSize(src.length)];
+				dst.length = _cipher.update(src.data, 0, src.length, dst.data, 0);
+			}
+			if (event != null) {
+				event.sequence = _chunks;
+				event.inBytes = src.length;
+				event.outBytes = dst.length;
+				event.commit();
+			}
+			_chunks++;
+			_freeIn.put(src);
+			_fullOut.put(dst);
+		}
+		Slot dst = _freeOut.take();
+		int size = _cipher.getOutputSize(0);
+		if (dst.data.length < size) {
+			dst.data = new byte[size];
+		}
+		dst.length = _cipher.doFinal(dst.data, 0);
+		_fullOut.put(dst);
+		_fullOut.put(END);
+	}
+
+	private void write(OutputStream out) {
+		try {
+			while (true) {
+				Slot slot = _fullOut.take();
+				if (slot == END) {
+					break;
+				}
+				if (slot.length > 0) {
+					out.write(slot.data, 0, slot.length);
+					_outBytes += slot.length;
+				}
+				_freeOut.put(slot);
+			}
+		} catch (Throwable t) {
+			fail(t);
+		}
+	}
+
+	/**
+	 * Records the first failure and stops all the stages.
+	 * Later failures interrupt nothing, so that a stage left behind does not interrupt the caller after the transfer.
+	 */
+	private void fail(Throwable t) {
+		synchronized (this) {
+			if (_failure != null) {
+				return;
+			}
+			_failure = t;
+		}
+		for (Thread thread : _threads) {
+			thread.interrupt();
+		}
+	}
+
+	private synchronized Throwable failure() {
+		return _failure;
+	}
+
+	/**
+	 * Waits for the stage to stop, or for any stage to fail; a failure interrupts this thread as well.
+	 */
+	private void join(Thread thread) {
+		while (thread.isAlive() && failure() == null) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				// keeps waiting unless a stage has failed
+			}
+		}
+	}
+
+}
@@ -0,0 +1,500 @@
+package com.hideakin.mycrypto;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Segmented streaming AEAD container built on AES-GCM.
+ *
+ * Layout:
+ *   header  : magic "MYCS" (4) | version (1) | tag length (1) | reserved (2) | segment size (4, big-endian)
+ *   segment : ciphertext of up to segment-size bytes | tag                  (version 1)
+ *             nonce (12) | ciphertext of up to segment-size bytes | tag      (version 2)
+ *
+ * Every segment is sealed on its own.
+ * In version 1 the nonce is derived from the base nonce, the segment index and a final-segment marker,
+ * and the AAD is the header plus the optional additional authenticated data.
+ * Version 2 is appendable: every segment carries a random nonce, and the segment index and the marker go into the AAD instead,
+ * so that the final segment can be sealed again with new data without ever reusing a nonce.
+ * Dropping, reordering or truncating segments therefore fails authentication in both versions.
+ */
+public class SegmentedGcm {
+
+	public static final int HEADER_LENGTH = 12;
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+	public static final int MIN_SEGMENT_SIZE = 16;
+	public static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+	private static final byte[] MAGIC = { 'M', 'Y', 'C', 'S' };
+	private static final byte VERSION = 1;
+	private static final byte VERSION_APPENDABLE = 2;
+	private static final int NONCE_LENGTH = 12;
+	private static final int BATCH_SIZE = 4 * 1024 * 1024;
+
+	private final String _transformation;
+	private final Provider _provider;
+	private final SecretKeySpec _keySpec;
+	private final byte[] _nonce;
+	private final byte[] _aad;
+	private final ForkJoinPool _pool;
+	private final SecureRandom _random = new SecureRandom();
+	private boolean _appendable;
+	private int _tagLength;
+	private int _segmentSize;
+	private byte[] _header;
+
+	public SegmentedGcm(String transformation, SecretKeySpec keySpec, byte[] nonce, byte[] aad) {
+		this(transformation, null, keySpec, nonce, aad, ForkJoinPool.commonPool());
+	}
+
+	public SegmentedGcm(String transformation, Provider provider, SecretKeySpec keySpec, byte[] nonce, byte[] aad) {
+		this(transformation, provider, keySpec, nonce, aad, ForkJoinPool.commonPool());
+	}
+
+	public SegmentedGcm(String transformation, Provider provider, SecretKeySpec keySpec, byte[] nonce, byte[] aad, ForkJoinPool pool) {
+		_transformation = transformation;
+		_provider = provider;
+		_keySpec = keySpec;
+		_nonce = nonce;
+		_aad = aad;
+		_pool = pool;
+	}
+
+	public int tagLength() {
+		return _tagLength;
+	}
+
+	public int segmentSize() {
+		return _segmentSize;
+	}
+
+	public boolean isAppendable() {
+		return _appendable;
+	}
+
+	/**
+	 * Sets up the header for encryption.
+	 */
+	public void setParameters(int tagLength, int segmentSize) {
+		setParameters(tagLength, segmentSize, false);
+	}
+
+	/**
+	 * Sets up the header for encryption, in the appendable format if requested.
+	 */
+	public void setParameters(int tagLength, int segmentSize, boolean appendable) {
+		if (segmentSize < MIN_SEGMENT_SIZE || MAX_SEGMENT_SIZE < segmentSize) {
+			throw new RuntimeException("Segment size is out of range.");
+		}
+		_appendable = appendable;
+		_tagLength = tagLength;
+		_segmentSize = segmentSize;
+		_header = new byte[HEADER_LENGTH];
+		System.arraycopy(MAGIC, 0, _header, 0, MAGIC.length);
+		_header[4] = appendable ? VERSION_APPENDABLE : VERSION;
+		_header[5] = (byte)tagLength;
+		_header[8] = (byte)(segmentSize >> 24);
+		_header[9] = (byte)(segmentSize >> 16);
+		_header[10] = (byte)(segmentSize >> 8);
+		_header[11] = (byte)(segmentSize >> 0);
+	}
+
+	/**
+	 * Sets up the parameters for decryption from the given header.
+	 */
+	public void parseHeader(byte[] header) {
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (header[i] != MAGIC[i]) {
+				throw new RuntimeException("Input is not in segmented format.");
+			}
+		}
+		if (header[4] != VERSION && header[4] != VERSION_APPENDABLE) {
+			throw new RuntimeException(String.format("Unsupported segmented format version: %d", header[4]));
+		}
+		int segmentSize = ((header[8] & 0xFF) << 24) | ((header[9] & 0xFF) << 16) | ((header[10] & 0xFF) << 8) | (header[11] & 0xFF);
+		setParameters(header[5] & 0xFF, segmentSize, header[4] == VERSION_APPENDABLE);
+	}
+
+	public byte[] header() {
+		return _header.clone();
+	}
+
+	private int segmentCipherLength() {
+		return _segmentSize + overhead();
+	}
+
+	/**
+	 * Returns the number of bytes that a segment adds to its plaintext.
+	 */
+	private int overhead() {
+		return (_appendable ? NONCE_LENGTH : 0) + _tagLength;
+	}
+
+	/**
+	 * Returns the nonce of the given segment:
+	 * the base nonce whose last five bytes are XORed with the 32-bit segment index and the final-segment marker.
+	 */
+	private byte[] nonceFor(long index, boolean last) {
+		if (index > 0xFFFFFFFFL) {
+			throw new RuntimeException("Too many segments.");
+		}
+		byte[] nonce = _nonce.clone();
+		int n = nonce.length;
+		nonce[n - 5] ^= (byte)(index >> 24);
+		nonce[n - 4] ^= (byte)(index >> 16);
+		nonce[n - 3] ^= (byte)(index >> 8);
+		nonce[n - 2] ^= (byte)(index >> 0);
+		nonce[n - 1] ^= (byte)(last ? 1 : 0);
+		return nonce;
+	}
+
+	private void initCipher(Cipher cipher, int operation, long index, boolean last, byte[] src) throws Exception {
+		if (_appendable) {
+			cipher.init(operation, _keySpec, new GCMParameterSpec(_tagLength * 8, src, 0, NONCE_LENGTH));
+			cipher.updateAAD(_header);
+			byte[] position = new byte[9];
+			for (int i = 0; i < 8; i++) {
+				position[i] = (byte)(index >> (56 - 8 * i));
+			}
+			position[8] = (byte)(last ? 1 : 0);
+			cipher.updateAAD(position);
+		} else {
+			cipher.init(operation, _keySpec, new GCMParameterSpec(_tagLength * 8, nonceFor(index, last)));
+			cipher.updateAAD(_header);
+		}
+		if (_aad != null) {
+			cipher.updateAAD(_aad);
+		}
+	}
+
+	/**
+	 * Seals one segment. Returns the number of bytes stored into dst.
+	 */
+	private int seal(Cipher cipher, long index, boolean last, byte[] src, int length, byte[] dst) throws Exception {
+		if (_appendable) {
+			byte[] nonce = new byte[NONCE_LENGTH];
+			_random.nextBytes(nonce);
+			System.arraycopy(nonce, 0, dst, 0, NONCE_LENGTH);
+			initCipher(cipher, Cipher.ENCRYPT_MODE, index, last, nonce);
+			return NONCE_LENGTH + cipher.doFinal(src, 0, length, dst, NONCE_LENGTH);
+		}
+		initCipher(cipher, Cipher.ENCRYPT_MODE, index, last, null);
+		return cipher.doFinal(src, 0, length, dst, 0);
+	}
+
+	/**
+	 * Opens one segment. Returns the number of bytes stored into dst.
+	 */
+	private int open(Cipher cipher, long index, boolean last, byte[] src, int length, byte[] dst) throws Exception {
+		if (length < overhead()) {
+			throw new RuntimeException("Input is truncated.");
+		}
+		initCipher(cipher, Cipher.DECRYPT_MODE, index, last, src);
+		int offset = _appendable ? NONCE_LENGTH : 0;
+		return cipher.doFinal(src, offset, length - offset, dst, 0);
+	}
+
+	/**
+	 * Returns the number of segments that a plaintext of the given length occupies.
+	 * An empty plaintext still has one (empty) final segment.
+	 */
+	public long segmentCount(long plainLength) {
+		return Math.max(1L, (plainLength + _segmentSize - 1) / _segmentSize);
+	}
+
+	/**
+	 * Returns the number of segments in a ciphertext file of the given length.
+	 */
+	public long segmentCountOfCiphertext(long fileLength) {
+		long length = fileLength - HEADER_LENGTH;
+		if (length < overhead()) {
+			throw new RuntimeException("Input is truncated.");
+		}
+		return (length + segmentCipherLength() - 1) / segmentCipherLength();
+	}
+
+	/**
+	 * Encrypts length bytes of the input file into the output file in parallel.
+	 * Returns the number of bytes written.
+	 */
+	public long encrypt(FileChannel in, FileChannel out, long length) throws Exception {
+		writeFully(out, ByteBuffer.wrap(_header), 0);
+		long count = segmentCount(length);
+		_pool.invoke(new Segments(in, out, Cipher.ENCRYPT_MODE, length, count, 0, count));
+		return HEADER_LENGTH + length + count * overhead();
+	}
+
+	/**
+	 * Decrypts the input file into the output file in parallel.
+	 * Returns the number of bytes written.
+	 */
+	public long decrypt(FileChannel in, FileChannel out) throws Exception {
+		byte[] header = new byte[HEADER_LENGTH];
+		readFully(in, ByteBuffer.wrap(header), 0);
+		parseHeader(header);
+		long length = in.size();
+		long count = segmentCountOfCiphertext(length);
+		_pool.invoke(new Segments(in, out, Cipher.DECRYPT_MODE, length, count, 0, count));
+		return length - HEADER_LENGTH - count * overhead();
+	}
+
+	@SuppressWarnings("serial")
+	private class Segments extends RecursiveAction {
+
+		private final FileChannel _in;
+		private final FileChannel _out;
+		private final int _operation;
+		private final long _length;
+		private final long _count;
+		private final long _from;
+		private final long _to;
+
+		public Segments(FileChannel in, FileChannel out, int operation, long length, long count, long from, long to) {
+			_in = in;
+			_out = out;
+			_operation = operation;
+			_length = length;
+			_count = count;
+			_from = from;
+			_to = to;
+		}
+
+		@Override
+		protected void compute() {
+			long batch = Math.max(1, BATCH_SIZE / _segmentSize);
+			if (_to - _from > batch) {
+				long mid = (_from + _to) >>> 1;
+				invokeAll(new Segments(_in, _out, _operation, _length, _count, _from, mid),
+						new Segments(_in, _out, _operation, _length, _count, mid, _to));
+			} else {
+				try {
+					process();
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new RuntimeException(e.getMessage(), e);
+				}
+			}
+		}
+
+		private void process() throws Exception {
+			Cipher cipher = CipherProviders.getInstance(_transformation, _provider);
+			byte[] src = new byte[segmentCipherLength()];
+			byte[] dst = new byte[segmentCipherLength()];
+			for (long index = _from; index < _to; index++) {
+				boolean last = index == _count - 1;
+				if (_operation == Cipher.ENCRYPT_MODE) {
+					long position = index * _segmentSize;
+					int n = (int)Math.min(_segmentSize, _length - position);
+					readFully(_in, ByteBuffer.wrap(src, 0, n), position);
+					int m = seal(cipher, index, last, src, n, dst);
+					writeFully(_out, ByteBuffer.wrap(dst, 0, m), HEADER_LENGTH + index * segmentCipherLength());
+				} else {
+					long position = HEADER_LENGTH + index * segmentCipherLength();
+					int n = (int)Math.min(segmentCipherLength(), _length - position);
+					readFully(_in, ByteBuffer.wrap(src, 0, n), position);
+					int m = open(cipher, index, last, src, n, dst);
+					writeFully(_out, ByteBuffer.wrap(dst, 0, m), index * _segmentSize);
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Decrypts length bytes of plaintext starting at the given offset into the output stream.
+	 * The segments that hold the range are located from the header and the file length,
+	 * and only they are read and authenticated.
+	 * Returns the number of bytes read.
+	 */
+	public long decryptRange(FileChannel in, long start, long length, OutputStream out) throws Exception {
+		if (start < 0 || length < 0) {
+			throw new RuntimeException("Range is out of bounds.");
+		}
+		byte[] header = new byte[HEADER_LENGTH];
+		readFully(in, ByteBuffer.wrap(header), 0);
+		parseHeader(header);
+		long fileLength = in.size();
+		long count = segmentCountOfCiphertext(fileLength);
+		long plainLength = fileLength - HEADER_LENGTH - count * overhead();
+		long end = Math.min(start + length, plainLength);
+		long inBytes = HEADER_LENGTH;
+		if (start >= end) {
+			return inBytes;
+		}
+		Cipher cipher = CipherProviders.getInstance(_transformation, _provider);
+		byte[] src = new byte[segmentCipherLength()];
+		byte[] dst = new byte[segmentCipherLength()];
+		for (long index = start / _segmentSize; index * _segmentSize < end; index++) {
+			long position = HEADER_LENGTH + index * segmentCipherLength();
+			int n = (int)Math.min(segmentCipherLength(), fileLength - position);
+			readFully(in, ByteBuffer.wrap(src, 0, n), position);
+			inBytes += n;
+			int m = open(cipher, index, index == count - 1, src, n, dst);
+			long offset = index * _segmentSize;
+			int from = (int)Math.max(0L, start - offset);
+			int to = (int)Math.min(m, end - offset);
+			out.write(dst, from, to - from);
+		}
+		return inBytes;
+	}
+
+	/**
+	 * Encrypts the input stream into the output stream one segment at a time.
+	 * Returns the number of bytes written.
+	 */
+	public long encrypt(InputStream in, OutputStream out) throws Exception {
+		Cipher cipher = CipherProviders.getInstance(_transformation, _provider);
+		byte[] current = new byte[_segmentSize];
+		byte[] next = new byte[_segmentSize];
+		byte[] dst = new byte[segmentCipherLength()];
+		out.write(_header);
+		long outBytes = HEADER_LENGTH;
+		int n = readFully(in, current);
+		for (long index = 0; ; index++) {
+			int m = n == _segmentSize ? readFully(in, next) : 0;
+			boolean last = m == 0;
+			int k = seal(cipher, index, last, current, n, dst);
+			out.write(dst, 0, k);
+			outBytes += k;
+			if (last) {
+				break;
+			}
+			byte[] t = current;
+			current = next;
+			next = t;
+			n = m;
+		}
+		return outBytes;
+	}
+
+	/**
+	 * Decrypts the input stream into the output stream one segment at a time.
+	 * Returns the number of bytes written.
+	 */
+	public long decrypt(InputStream in, OutputStream out) throws Exception {
+		byte[] header = new byte[HEADER_LENGTH];
+		if (readFully(in, header) < HEADER_LENGTH) {
+			throw new RuntimeException("Input is truncated.");
+		}
+		parseHeader(header);
+		Cipher cipher = CipherProviders.getInstance(_transformation, _provider);
+		byte[] current = new byte[segmentCipherLength()];
+		byte[] next = new byte[segmentCipherLength()];
+		byte[] dst = new byte[segmentCipherLength()];
+		long outBytes = 0L;
+		int n = readFully(in, current);
+		for (long index = 0; ; index++) {
+			int m = n == segmentCipherLength() ? readFully(in, next) : 0;
+			boolean last = m == 0;
+			int k = open(cipher, index, last, current, n, dst);
+			out.write(dst, 0, k);
+			outBytes += k;
+			if (last) {
+				break;
+			}
+			byte[] t = current;
+			current = next;
+			next = t;
+			n = m;
+		}
+		return outBytes;
+	}
+
+	/**
+	 * Appends the input stream to a file in the appendable format.
+	 * The final segment is opened and sealed again together with the head of the new data,
+	 * and the rest of the new data follows in new segments, so that only the final segment and the new data are touched.
+	 * The part of the file that gets overwritten is saved to the journal first.
+	 * Returns the number of bytes written.
+	 */
+	public long append(InputStream in, FileChannel file, Path journal) throws Exception {
+		byte[] header = new byte[HEADER_LENGTH];
+		readFully(file, ByteBuffer.wrap(header), 0);
+		parseHeader(header);
+		if (!_appendable) {
+			throw new RuntimeException("Output file is not in appendable segmented format.");
+		}
+		long fileLength = file.size();
+		long index = segmentCountOfCiphertext(fileLength) - 1;
+		long position = HEADER_LENGTH + index * segmentCipherLength();
+		Cipher cipher = CipherProviders.getInstance(_transformation, _provider);
+		byte[] current = new byte[segmentCipherLength()];
+		byte[] next = new byte[_segmentSize];
+		byte[] dst = new byte[segmentCipherLength()];
+		int k = (int)(fileLength - position);
+		readFully(file, ByteBuffer.wrap(dst, 0, k), position);
+		int n = open(cipher, index, true, dst, k, current);
+		n += readFully(in, current, n, _segmentSize - n);
+		AppendJournal.begin(file, journal, position);
+		long outBytes = 0L;
+		for (; ; index++) {
+			int m = n == _segmentSize ? readFully(in, next, 0, _segmentSize) : 0;
+			boolean last = m == 0;
+			k = seal(cipher, index, last, current, n, dst);
+			writeFully(file, ByteBuffer.wrap(dst, 0, k), position);
+			position += k;
+			outBytes += k;
+			if (last) {
+				break;
+			}
+			byte[] t = current;
+			current = next;
+			next = t;
+			n = m;
+		}
+		AppendJournal.commit(file, journal);
+		return outBytes;
+	}
+
+	private static int readFully(InputStream in, byte[] buf, int offset, int length) throws Exception {
+		int n = 0;
+		while (n < length) {
+			int m = in.read(buf, offset + n, length - n);
+			if (m < 0) {
+				break;
+			}
+			n += m;
+		}
+		return n;
+	}
+
+	private static int readFully(InputStream in, byte[] buf) throws Exception {
+		int n = 0;
+		while (n < buf.length) {
+			int m = in.read(buf, n, buf.length - n);
+			if (m < 0) {
+				break;
+			}
+			n += m;
+		}
+		return n;
+	}
+
+	private static void readFully(FileChannel in, ByteBuffer buf, long position) throws Exception {
+		long start = position - buf.position();
+		while (buf.hasRemaining()) {
+			if (in.read(buf, start + buf.position()) < 0) {
+				throw new RuntimeException("Input is truncated.");
+			}
+		}
+	}
+
+	private static void writeFully(FileChannel out, ByteBuffer buf, long position) throws Exception {
+		long start = position - buf.position();
+		while (buf.hasRemaining()) {
+			out.write(buf, start + buf.position());
+		}
+	}
+
+}
@@ -0,0 +1,98 @@
+package com.hideakin.mycrypto;
+
+import java.lang.management.ManagementFactory;
+import java.security.Provider;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.hideakin.mycrypto.constant.OperationalMode;
+import com.hideakin.mycrypto.constant.Transformation;
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+/**
+ * Measures encryption throughput in the manner of "openssl speed".
+ *
+ * Every measurement encrypts one buffer of the given size over and over for a fixed time,
+ * after a quarter of that time spent unmeasured so that the JIT compiler has settled.
+ * GCM is initialized with a new nonce for every buffer, as a record protocol does.
+ */
+public class SpeedTest {
+
+	public static final int[] SIZES = { 16, 256, 1024, 8192, 16384 };
+
+	private static final int GCM_NONCE_LENGTH = 12;
+	private static final int GCM_TAG_LENGTH = 16;
+
+	private final long _nanos;
+
+	public SpeedTest(long millis) {
+		_nanos = millis * 1000000L;
+	}
+
+	/**
+	 * Returns the throughput in MB/s (10^6 bytes per second).
+	 */
+	public double measure(Transformation t, Provider provider, int size) throws Exception {
+		Cipher cipher = Cipher.getInstance(t.jceName(), provider);
+		SecretKeySpec keySpec = new SecretKeySpec(new byte[t.keyLength()], t.algorithm().label());
+		byte[] in = new byte[size];
+		byte[] out = new byte[size + 64];
+		byte[] iv = new byte[t.mode() == OperationalMode.GCM ? GCM_NONCE_LENGTH : 16];
+		if (t.mode() != OperationalMode.GCM) {
+			init(cipher, t, keySpec, iv);
+		}
+		run(cipher, t, keySpec, iv, in, out, _nanos / 4);
+		long start = System.nanoTime();
+		long bytes = run(cipher, t, keySpec, iv, in, out, _nanos);
+		long elapsed = System.nanoTime() - start;
+		return bytes / (elapsed / 1e9) / 1e6;
+	}
+
+	private static long run(Cipher cipher, Transformation t, SecretKeySpec keySpec, byte[] iv, byte[] in, byte[] out, long nanos) throws Exception {
+		long deadline = System.nanoTime() + nanos;
+		long bytes = 0L;
+		long counter = 0L;
+		do {
+			// checks the clock every few buffers only
+			for (int i = 0; i < 16; i++) {
+				if (t.mode() == OperationalMode.GCM) {
+					counter++;
+					for (int j = 0; j < 8; j++) {
+						iv[j] = (byte)(counter >> (j * 8));
+					}
+					init(cipher, t, keySpec, iv);
+					cipher.doFinal(in, 0, in.length, out, 0);
+				} else {
+					cipher.update(in, 0, in.length, out, 0);
+				}
+				bytes += in.length;
+			}
+		} while (System.nanoTime() < deadline);
+		return bytes;
+	}
+
+	private static void init(Cipher cipher, Transformation t, SecretKeySpec keySpec, byte[] iv) throws Exception {
+		if (t.mode() == OperationalMode.ECB) {
+			cipher.init(Cipher.ENCRYPT_MODE, keySpec);
+		} else if (t.mode() == OperationalMode.GCM) {
+			cipher.init(Cipher.ENCRYPT_MODE, keySpec, new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv));
+		} else {
+			cipher.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(iv));
+		}
+	}
+
+	/**
+	 * Returns the value of a HotSpot flag such as UseAESIntrinsics, or "unknown" on another JVM.
+	 */
+	public static String vmOption(String name) {
+		try {
+			return ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class).getVMOption(name).getValue();
+		} catch (Exception e) {
+			return "unknown";
+		}
+	}
+
+}
@@ -7,6 +7,7 @@ public enum OperationalMode {
 	ECB("ECB", "Electronic CodeBook"),
 	CFB8("CFB8", "8-bit Cipher FeedBack Mode"),
 	OFB8("OFB8", "8-bit Output FeedBack Mode"),
+	CTR("CTR", "Counter Mode"),
 	GCM("GCM", "Galois/Counter Mode");
 
 	private String _label;
@@ -0,0 +1,81 @@
+package com.hideakin.mycrypto.constant;
+
+public enum Transformation {
+
+	AES_256_CBC("aes-256-cbc", Algorithm.AES, OperationalMode.CBC, Padding.PKCS5, 256),
+	AES_192_CBC("aes-192-cbc", Algorithm.AES, OperationalMode.CBC, Padding.PKCS5, 192),
+	AES_128_CBC("aes-128-cbc", Algorithm.AES, OperationalMode.CBC, Padding.PKCS5, 128),
+	AES_256_ECB("aes-256-ecb", Algorithm.AES, OperationalMode.ECB, Padding.PKCS5, 256),
+	AES_192_ECB("aes-192-ecb", Algorithm.AES, OperationalMode.ECB, Padding.PKCS5, 192),
+	AES_128_ECB("aes-128-ecb", Algorithm.AES, OperationalMode.ECB, Padding.PKCS5, 128),
+	AES_256_CFB("aes-256-cfb", Algorithm.AES, OperationalMode.CFB8, Padding.NONE, 256),
+	AES_192_CFB("aes-192-cfb", Algorithm.AES, OperationalMode.CFB8, Padding.NONE, 192),
+	AES_128_CFB("aes-128-cfb", Algorithm.AES, OperationalMode.CFB8, Padding.NONE, 128),
+	AES_256_OFB("aes-256-ofb", Algorithm.AES, OperationalMode.OFB8, Padding.NONE, 256),
+	AES_192_OFB("aes-192-ofb", Algorithm.AES, OperationalMode.OFB8, Padding.NONE, 192),
+	AES_128_OFB("aes-128-ofb", Algorithm.AES, OperationalMode.OFB8, Padding.NONE, 128),
+	AES_256_CTR("aes-256-ctr", Algorithm.AES, OperationalMode.CTR, Padding.NONE, 256),
+	AES_192_CTR("aes-192-ctr", Algorithm.AES, OperationalMode.CTR, Padding.NONE, 192),
+	AES_128_CTR("aes-128-ctr", Algorithm.AES, OperationalMode.CTR, Padding.NONE, 128),
+	AES_256_GCM("aes-256-gcm", Algorithm.AES, OperationalMode.GCM, Padding.NONE, 256),
+	AES_192_GCM("aes-192-gcm", Algorithm.AES, OperationalMode.GCM, Padding.NONE, 192),
+	AES_128_GCM("aes-128-gcm", Algorithm.AES, OperationalMode.GCM, Padding.NONE, 128);
+
+	private String _label;
+	private Algorithm _algorithm;
+	private OperationalMode _mode;
+	private Padding _padding;
+	private int _keyBits;
+
+	private Transformation(String label, Algorithm algorithm, OperationalMode mode, Padding padding, int keyBits) {
+		_label = label;
+		_algorithm = algorithm;
+		_mode = mode;
+		_padding = padding;
+		_keyBits = keyBits;
+	}
+
+	public String label() {
+		return _label;
+	}
+
+	public Algorithm algorithm() {
+		return _algorithm;
+	}
+
+	public OperationalMode mode() {
+		return _mode;
+	}
+
+	public Padding padding() {
+		return _padding;
+	}
+
+	public int keyBits() {
+		return _keyBits;
+	}
+
+	public int keyLength() {
+		return _keyBits / 8;
+	}
+
+	/**
+	 * Returns the transformation string for Cipher.getInstance.
+	 */
+	public String jceName() {
+		return _algorithm.label() + "/" + _mode.label() + "/" + _padding.label();
+	}
+
+	/**
+	 * Returns the transformation of the given label, or null.
+	 */
+	public static Transformation find(String label) {
+		for (Transformation t : values()) {
+			if (t._label.equals(label)) {
+				return t;
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,40 @@
+package com.hideakin.mycrypto.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.hideakin.mycrypto.Chunk")
+@Label("Chunk")
+@Category("MyCrypto")
+@Description("Cipher update of one chunk, recorded for one chunk out of every SAMPLE_INTERVAL")
+public class ChunkEvent extends Event {
+
+	public static final int SAMPLE_INTERVAL = 64;
+
+	private static final EventType TYPE = EventType.getEventType(ChunkEvent.class);
+
+	/**
+	 * Returns true if the chunk with the given sequence number is to be recorded.
+	 * Nothing is allocated while no recording has the event enabled.
+	 */
+	public static boolean isSampled(long sequence) {
+		return sequence % SAMPLE_INTERVAL == 0 && TYPE.isEnabled();
+	}
+
+	@Label("Sequence")
+	public long sequence;
+
+	@Label("Bytes In")
+	@DataAmount
+	public long inBytes;
+
+	@Label("Bytes Out")
+	@DataAmount
+	public long outBytes;
+
+}
@@ -0,0 +1,21 @@
+package com.hideakin.mycrypto.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.hideakin.mycrypto.CipherInit")
+@Label("Cipher Init")
+@Category("MyCrypto")
+@Description("Acquisition and initialization of the Cipher of a job")
+public class CipherInitEvent extends Event {
+
+	@Label("Transformation")
+	public String transformation;
+
+	@Label("Operation")
+	public String operation;
+
+}
@@ -0,0 +1,21 @@
+package com.hideakin.mycrypto.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.hideakin.mycrypto.Commit")
+@Label("Commit")
+@Category("MyCrypto")
+@Description("Closing of the temporary output file and its move to the output path")
+public class CommitEvent extends Event {
+
+	@Label("Path")
+	public String path;
+
+	@Label("Replaced")
+	public boolean replaced;
+
+}
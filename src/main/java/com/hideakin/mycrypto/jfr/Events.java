@@ -0,0 +1,17 @@
+package com.hideakin.mycrypto.jfr;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Tells whether the events of this package are worth creating.
+ *
+ * Loading the first event class starts up the whole of JFR, which takes longer than a small job does,
+ * so the events are created only once JFR is initialized, either with the JVM or by a recording started later.
+ */
+public class Events {
+
+	public static boolean enabled() {
+		return FlightRecorder.isInitialized();
+	}
+
+}
@@ -0,0 +1,39 @@
+package com.hideakin.mycrypto.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.hideakin.mycrypto.Job")
+@Label("Job")
+@Category("MyCrypto")
+@Description("Encryption/decryption of one input into one output")
+public class JobEvent extends Event {
+
+	@Label("Transformation")
+	public String transformation;
+
+	@Label("Operation")
+	public String operation;
+
+	@Label("Input")
+	public String input;
+
+	@Label("Output")
+	public String output;
+
+	@Label("Bytes In")
+	@DataAmount
+	public long inBytes;
+
+	@Label("Bytes Out")
+	@DataAmount
+	public long outBytes;
+
+	@Label("Succeeded")
+	public boolean succeeded;
+
+}
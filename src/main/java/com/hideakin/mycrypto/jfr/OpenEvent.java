@@ -0,0 +1,21 @@
+package com.hideakin.mycrypto.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.hideakin.mycrypto.Open")
+@Label("Open")
+@Category("MyCrypto")
+@Description("Opening of an input file or a temporary output file")
+public class OpenEvent extends Event {
+
+	@Label("Path")
+	public String path;
+
+	@Label("Output")
+	public boolean output;
+
+}
@@ -0,0 +1,158 @@
+package com.hideakin.util;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Text encodings of binary data, written as lines of LF-terminated ASCII.
+ */
+public enum Armor {
+
+	HEX("hex", 32),
+	BASE64("base64", 57);
+
+	private static final byte[] BASE64_TEXT = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes();
+
+	/**
+	 * Value of every ASCII code as a Base64 digit, or -1.
+	 */
+	private static final byte[] BASE64_DIGITS = new byte[128];
+
+	static {
+		Arrays.fill(BASE64_DIGITS, (byte)-1);
+		for (int i = 0; i < BASE64_TEXT.length; i++) {
+			BASE64_DIGITS[BASE64_TEXT[i]] = (byte)i;
+		}
+	}
+
+	private final String _label;
+	private final int _lineBytes;
+
+	private Armor(String label, int lineBytes) {
+		_label = label;
+		_lineBytes = lineBytes;
+	}
+
+	public String label() {
+		return _label;
+	}
+
+	/**
+	 * Returns the number of binary bytes encoded on one line.
+	 */
+	public int lineBytes() {
+		return _lineBytes;
+	}
+
+	/**
+	 * Returns the number of characters, not counting the line feed, of a line holding the given number of binary bytes.
+	 */
+	public int lineLength(int bytes) {
+		return this == HEX ? bytes * 2 : (bytes + 2) / 3 * 4;
+	}
+
+	/**
+	 * Returns the number of characters that make up an undividable group.
+	 */
+	public int quantum() {
+		return this == HEX ? 2 : 4;
+	}
+
+	/**
+	 * Encodes len bytes from src[off] into dst from dst[dstOff], padding the last group of Base64.
+	 * Returns the number of characters written.
+	 */
+	public int encode(byte[] src, int off, int len, byte[] dst, int dstOff) {
+		if (this == HEX) {
+			return HexString.encode(src, off, len, dst, dstOff);
+		}
+		int j = dstOff;
+		int end = off + len - len % 3;
+		for (int i = off; i < end; i += 3) {
+			int v = ((src[i] & 0xFF) << 16) | ((src[i + 1] & 0xFF) << 8) | (src[i + 2] & 0xFF);
+			dst[j++] = BASE64_TEXT[(v >> 18) & 0x3F];
+			dst[j++] = BASE64_TEXT[(v >> 12) & 0x3F];
+			dst[j++] = BASE64_TEXT[(v >> 6) & 0x3F];
+			dst[j++] = BASE64_TEXT[v & 0x3F];
+		}
+		if (len % 3 == 1) {
+			int v = (src[end] & 0xFF) << 16;
+			dst[j++] = BASE64_TEXT[(v >> 18) & 0x3F];
+			dst[j++] = BASE64_TEXT[(v >> 12) & 0x3F];
+			dst[j++] = '=';
+			dst[j++] = '=';
+		} else if (len % 3 == 2) {
+			int v = ((src[end] & 0xFF) << 16) | ((src[end + 1] & 0xFF) << 8);
+			dst[j++] = BASE64_TEXT[(v >> 18) & 0x3F];
+			dst[j++] = BASE64_TEXT[(v >> 12) & 0x3F];
+			dst[j++] = BASE64_TEXT[(v >> 6) & 0x3F];
+			dst[j++] = '=';
+		}
+		return j - dstOff;
+	}
+
+	/**
+	 * Decodes len characters, a multiple of quantum() free of whitespace, from src[off] into dst from dst[dstOff].
+	 * Padding is accepted only in the last group.
+	 * Returns the number of bytes written, or -1 if there is a character that does not belong to the encoding.
+	 */
+	public int decode(byte[] src, int off, int len, byte[] dst, int dstOff) {
+		int j = dstOff;
+		int end = off + len;
+		if (this == HEX) {
+			for (int i = off; i < end; i += 2) {
+				int d = HexString.digit(src[i]);
+				int e = HexString.digit(src[i + 1]);
+				if ((d | e) < 0) {
+					return -1;
+				}
+				dst[j++] = (byte)((d << 4) | e);
+			}
+			return j - dstOff;
+		}
+		for (int i = off; i < end; i += 4) {
+			int a = base64Digit(src[i]);
+			int b = base64Digit(src[i + 1]);
+			int c = base64Digit(src[i + 2]);
+			int d = base64Digit(src[i + 3]);
+			if ((a | b | c | d) >= 0) {
+				int v = (a << 18) | (b << 12) | (c << 6) | d;
+				dst[j++] = (byte)(v >> 16);
+				dst[j++] = (byte)(v >> 8);
+				dst[j++] = (byte)v;
+			} else if (i + 4 == end && (a | b) >= 0 && src[i + 3] == '=' && (c >= 0 || src[i + 2] == '=')) {
+				int v = (a << 18) | (b << 12) | (Math.max(c, 0) << 6);
+				dst[j++] = (byte)(v >> 16);
+				if (c >= 0) {
+					dst[j++] = (byte)(v >> 8);
+				}
+			} else {
+				return -1;
+			}
+		}
+		return j - dstOff;
+	}
+
+	private static int base64Digit(byte c) {
+		return (c & ~0x7F) == 0 ? BASE64_DIGITS[c] : -1;
+	}
+
+	public ArmorOutputStream encoder(OutputStream out) {
+		return new ArmorOutputStream(out, this);
+	}
+
+	public InputStream decoder(InputStream in) {
+		return new ArmorInputStream(in, this);
+	}
+
+	public static Armor parse(String label) {
+		for (Armor armor : values()) {
+			if (armor.label().equalsIgnoreCase(label)) {
+				return armor;
+			}
+		}
+		throw new RuntimeException(String.format("Unknown armor: %s", label));
+	}
+
+}
@@ -0,0 +1,101 @@
+package com.hideakin.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes text written by ArmorOutputStream as it is read, through buffers of a fixed size.
+ * Line breaks, spaces and tabs are ignored wherever they appear.
+ */
+public class ArmorInputStream extends InputStream {
+
+	private static final int TEXT_SIZE = 64 * 1024;
+
+	private final InputStream _in;
+	private final Armor _armor;
+	private final byte[] _text = new byte[TEXT_SIZE];
+	private int _carry = 0;
+	private final byte[] _buf = new byte[TEXT_SIZE];
+	private int _pos = 0;
+	private int _limit = 0;
+	private boolean _eof = false;
+	private boolean _padded = false;
+
+	public ArmorInputStream(InputStream in, Armor armor) {
+		_in = in;
+		_armor = armor;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (_pos == _limit && !fill()) {
+			return -1;
+		}
+		return _buf[_pos++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		} else if (_pos == _limit && !fill()) {
+			return -1;
+		}
+		int n = Math.min(len, _limit - _pos);
+		System.arraycopy(_buf, _pos, b, off, n);
+		_pos += n;
+		return n;
+	}
+
+	/**
+	 * Decodes the next run of whole groups. Returns false at the end of the input.
+	 */
+	private boolean fill() throws IOException {
+		while (true) {
+			if (_eof) {
+				if (_carry > 0) {
+					throw new IOException(String.format("Armored input is truncated: %s", _armor.label()));
+				}
+				return false;
+			}
+			int n = _in.read(_text, _carry, _text.length - _carry);
+			if (n < 0) {
+				_eof = true;
+				continue;
+			}
+			int end = _carry;
+			for (int i = _carry; i < _carry + n; i++) {
+				byte c = _text[i];
+				if (c != '\n' && c != '\r' && c != ' ' && c != '\t') {
+					_text[end++] = c;
+				}
+			}
+			if (end > 0 && _padded) {
+				throw new IOException(String.format("Armored input continues after padding: %s", _armor.label()));
+			}
+			int len = end - end % _armor.quantum();
+			if (len > 0) {
+				int m = _armor.decode(_text, 0, len, _buf, 0);
+				if (m < 0) {
+					throw new IOException(String.format("Armored input is not valid: %s", _armor.label()));
+				}
+				_padded = _text[len - 1] == '=';
+				System.arraycopy(_text, len, _text, 0, end - len);
+				_carry = end - len;
+				_pos = 0;
+				_limit = m;
+				if (m > 0) {
+					return true;
+				}
+			} else {
+				_carry = end;
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		_in.close();
+	}
+
+}
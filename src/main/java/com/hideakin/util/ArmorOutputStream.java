@@ -0,0 +1,99 @@
+package com.hideakin.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes the data written into lines of text as it goes, holding no more than one output buffer.
+ */
+public class ArmorOutputStream extends OutputStream {
+
+	private static final int LINES_PER_WRITE = 128;
+
+	private final OutputStream _out;
+	private final Armor _armor;
+	private final byte[] _line;
+	private int _count = 0;
+	private final byte[] _buf;
+	private int _length = 0;
+	private boolean _finished = false;
+
+	public ArmorOutputStream(OutputStream out, Armor armor) {
+		_out = out;
+		_armor = armor;
+		_line = new byte[armor.lineBytes()];
+		_buf = new byte[(armor.lineLength(armor.lineBytes()) + 1) * LINES_PER_WRITE];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte)b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (_finished) {
+			throw new IOException("Stream is already finished.");
+		}
+		while (len > 0) {
+			if (_count == 0 && len >= _line.length) {
+				// whole lines straight from the caller's buffer
+				encodeLine(b, off, _line.length);
+				off += _line.length;
+				len -= _line.length;
+				continue;
+			}
+			int n = Math.min(len, _line.length - _count);
+			System.arraycopy(b, off, _line, _count, n);
+			_count += n;
+			off += n;
+			len -= n;
+			if (_count == _line.length) {
+				encodeLine(_line, 0, _count);
+				_count = 0;
+			}
+		}
+	}
+
+	private void encodeLine(byte[] b, int off, int len) throws IOException {
+		if (_buf.length - _length < _armor.lineLength(len) + 1) {
+			drain();
+		}
+		_length += _armor.encode(b, off, len, _buf, _length);
+		_buf[_length++] = '\n';
+	}
+
+	private void drain() throws IOException {
+		if (_length > 0) {
+			_out.write(_buf, 0, _length);
+			_length = 0;
+		}
+	}
+
+	/**
+	 * Encodes what is still held back and writes out all the lines without closing the underlying stream.
+	 */
+	public void finish() throws IOException {
+		if (!_finished) {
+			if (_count > 0) {
+				encodeLine(_line, 0, _count);
+				_count = 0;
+			}
+			drain();
+			_finished = true;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		drain();
+		_out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		finish();
+		_out.close();
+	}
+
+}
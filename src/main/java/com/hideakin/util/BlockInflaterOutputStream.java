@@ -0,0 +1,149 @@
+package com.hideakin.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Expands the blocks of ParallelDeflaterOutputStream written into it.
+ * The header of the format has been read by the caller, which gives the block size.
+ */
+public class BlockInflaterOutputStream extends OutputStream {
+
+	private static final int BLOCK_HEADER = 0;
+	private static final int PAYLOAD = 1;
+	private static final int END = 2;
+
+	private final OutputStream _out;
+	private final Inflater _inflater = new Inflater();
+	private final int _blockSize;
+	private final byte[] _block;
+	private int _state;
+	private byte[] _buf;
+	private int _count;
+	private int _needed;
+	private int _payloadLength;
+	private int _originalLength;
+	private boolean _stored;
+	private long _written = 0L;
+
+	public BlockInflaterOutputStream(OutputStream out, int blockSize) {
+		_out = out;
+		_blockSize = blockSize;
+		_block = new byte[blockSize];
+		startBlockHeader();
+	}
+
+	/**
+	 * Returns the number of bytes written to the underlying stream.
+	 */
+	public long count() {
+		return _written;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte)b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (_state == END) {
+				throw new IOException("Trailing data after compressed stream.");
+			}
+			int n = Math.min(len, _needed - _count);
+			System.arraycopy(b, off, _buf, _count, n);
+			_count += n;
+			off += n;
+			len -= n;
+			if (_count == _needed) {
+				next();
+			}
+		}
+	}
+
+	private void next() throws IOException {
+		if (_state == BLOCK_HEADER) {
+			int value = ParallelDeflaterOutputStream.getInt(_buf, 0);
+			_stored = (value & ParallelDeflaterOutputStream.STORED) != 0;
+			_payloadLength = value & ~ParallelDeflaterOutputStream.STORED;
+			_originalLength = ParallelDeflaterOutputStream.getInt(_buf, 4);
+			if (_payloadLength == 0 && _originalLength == 0 && !_stored) {
+				_state = END;
+			} else if (_payloadLength < 1 || _blockSize < _payloadLength || _originalLength < 1 || _blockSize < _originalLength
+					|| (_stored && _payloadLength != _originalLength)) {
+				throw new IOException("Compressed stream is corrupted.");
+			} else {
+				_state = PAYLOAD;
+				if (_buf.length < _payloadLength) {
+					_buf = new byte[_blockSize];
+				}
+				_count = 0;
+				_needed = _payloadLength;
+			}
+		} else if (_state == PAYLOAD) {
+			if (_stored) {
+				_out.write(_buf, 0, _payloadLength);
+			} else {
+				inflate();
+				_out.write(_block, 0, _originalLength);
+			}
+			_written += _originalLength;
+			startBlockHeader();
+		}
+	}
+
+	private void startBlockHeader() {
+		_state = BLOCK_HEADER;
+		if (_buf == null || _buf.length < ParallelDeflaterOutputStream.BLOCK_HEADER_LENGTH) {
+			_buf = new byte[ParallelDeflaterOutputStream.BLOCK_HEADER_LENGTH];
+		}
+		_count = 0;
+		_needed = ParallelDeflaterOutputStream.BLOCK_HEADER_LENGTH;
+	}
+
+	private void inflate() throws IOException {
+		_inflater.reset();
+		_inflater.setInput(_buf, 0, _payloadLength);
+		try {
+			int n = 0;
+			while (n < _originalLength && !_inflater.finished()) {
+				int m = _inflater.inflate(_block, n, _originalLength - n);
+				if (m == 0 && (_inflater.needsInput() || _inflater.needsDictionary())) {
+					break;
+				}
+				n += m;
+			}
+			if (n != _originalLength || !_inflater.finished()) {
+				throw new IOException("Compressed stream is corrupted.");
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Compressed stream is corrupted.", e);
+		}
+	}
+
+	/**
+	 * Checks that the compressed stream has come to its end, and frees the native memory of the Inflater.
+	 * Does not close the underlying stream.
+	 */
+	public void finish() throws IOException {
+		_inflater.end();
+		if (_state != END) {
+			throw new IOException("Compressed stream is truncated.");
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		_out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		finish();
+		_out.close();
+	}
+
+}
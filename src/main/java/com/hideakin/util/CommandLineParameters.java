@@ -3,6 +3,7 @@ package com.hideakin.util;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class CommandLineParameters {
 
@@ -10,10 +11,10 @@ public class CommandLineParameters {
 
 		private String _key;
 		private String _operand;
-		private String _description;
+		private Supplier<String> _description;
 		private Function<CommandLineParameters, Boolean> _function;
 
-		public Parameter(String key, String operand, String description, Function<CommandLineParameters, Boolean> function) {
+		public Parameter(String key, String operand, Supplier<String> description, Function<CommandLineParameters, Boolean> function) {
 			_key = key;
 			_operand = operand;
 			_description = description;
@@ -29,7 +30,7 @@ public class CommandLineParameters {
 		}
 
 		public String description() {
-			return _description;
+			return _description.get();
 		}
 
 		public Function<CommandLineParameters, Boolean> function() {
@@ -47,12 +48,20 @@ public class CommandLineParameters {
 	}
 
 	public CommandLineParameters add(String key, String description, Function<CommandLineParameters, Boolean> function) {
-		_mappings.put(key, new Parameter(key, null, description, function));
+		_mappings.put(key, new Parameter(key, null, () -> description, function));
 		return this;
 	}
 
 	public CommandLineParameters add(String key, String operand, String description, Function<CommandLineParameters, Boolean> function) {
-		_mappings.put(key, new Parameter(key, operand, description, function));
+		_mappings.put(key, new Parameter(key, operand, () -> description, function));
+		return this;
+	}
+
+	/**
+	 * Adds a parameter whose description is built only when the help is printed.
+	 */
+	public CommandLineParameters add(String key, Supplier<String> description, Function<CommandLineParameters, Boolean> function) {
+		_mappings.put(key, new Parameter(key, null, description, function));
 		return this;
 	}
 	
@@ -77,6 +86,39 @@ public class CommandLineParameters {
 		}
 	}
 	
+	/**
+	 * Returns the argument as a number of bytes.
+	 * A suffix K, M or G multiplies it by 1024, 1024^2 or 1024^3.
+	 */
+	public int sizeArgument() {
+		String value = _args[_index];
+		int shift = 0;
+		if (value.length() > 1) {
+			switch (Character.toUpperCase(value.charAt(value.length() - 1))) {
+			case 'K':
+				shift = 10;
+				break;
+			case 'M':
+				shift = 20;
+				break;
+			case 'G':
+				shift = 30;
+				break;
+			default:
+				break;
+			}
+		}
+		try {
+			long size = Long.parseLong(shift > 0 ? value.substring(0, value.length() - 1) : value) << shift;
+			if (size < 0 || size > Integer.MAX_VALUE) {
+				throw new RuntimeException(String.format("Size is out of range: %s", value));
+			}
+			return (int)size;
+		} catch (NumberFormatException e) {
+			throw new RuntimeException(e.getMessage());
+		}
+	}
+
 	public byte[] binaryArgument() {
 		return HexString.parse(_args[_index]);
 	}
@@ -0,0 +1,44 @@
+package com.hideakin.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class CountingInputStream extends FilterInputStream {
+
+	private long _count = 0L;
+
+	public CountingInputStream(InputStream in) {
+		super(in);
+	}
+
+	public long count() {
+		return _count;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int c = super.read();
+		if (c >= 0) {
+			_count++;
+		}
+		return c;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = super.read(b, off, len);
+		if (n > 0) {
+			_count += n;
+		}
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long m = super.skip(n);
+		_count += m;
+		return m;
+	}
+
+}
@@ -0,0 +1,31 @@
+package com.hideakin.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class CountingOutputStream extends FilterOutputStream {
+
+	private long _count = 0L;
+
+	public CountingOutputStream(OutputStream out) {
+		super(out);
+	}
+
+	public long count() {
+		return _count;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		out.write(b);
+		_count++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		_count += len;
+	}
+
+}
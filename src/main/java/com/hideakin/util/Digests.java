@@ -0,0 +1,201 @@
+package com.hideakin.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * A set of message digests and checksums fed with the same bytes, typically by a stream that passes through.
+ * Names are those of MessageDigest, such as SHA-256, or one of crc32, crc32c and adler32.
+ */
+public class Digests {
+
+	private final List<String> _names = new ArrayList<>();
+	private final List<MessageDigest> _digests = new ArrayList<>();
+	private final List<Checksum> _checksums = new ArrayList<>();
+	private List<byte[]> _values;
+
+	public Digests(List<String> names) {
+		for (String name : names) {
+			Checksum checksum = checksumOf(name);
+			if (checksum != null) {
+				_names.add(name.toUpperCase());
+				_digests.add(null);
+				_checksums.add(checksum);
+			} else {
+				try {
+					MessageDigest md = MessageDigest.getInstance(name);
+					_names.add(md.getAlgorithm().toUpperCase());
+					_digests.add(md);
+					_checksums.add(null);
+				} catch (Exception e) {
+					throw new RuntimeException(String.format("Unknown digest: %s", name));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Splits a comma-separated list of names, checking that every one of them is available.
+	 */
+	public static List<String> parse(String value) {
+		List<String> names = new ArrayList<>();
+		for (String name : value.split(",")) {
+			if (!name.isBlank()) {
+				names.add(name.trim());
+			}
+		}
+		if (names.isEmpty()) {
+			throw new RuntimeException("Digest is not specified.");
+		}
+		new Digests(names);
+		return names;
+	}
+
+	private static Checksum checksumOf(String name) {
+		if ("crc32".equalsIgnoreCase(name)) {
+			return new CRC32();
+		} else if ("crc32c".equalsIgnoreCase(name)) {
+			return new CRC32C();
+		} else if ("adler32".equalsIgnoreCase(name)) {
+			return new Adler32();
+		} else {
+			return null;
+		}
+	}
+
+	public void update(byte[] b, int off, int len) {
+		for (int i = 0; i < _names.size(); i++) {
+			if (_digests.get(i) != null) {
+				_digests.get(i).update(b, off, len);
+			} else {
+				_checksums.get(i).update(b, off, len);
+			}
+		}
+	}
+
+	/**
+	 * Finishes the digests on the first call; a checksum is taken as 4 bytes, big-endian.
+	 */
+	private List<byte[]> finish() {
+		if (_values == null) {
+			_values = new ArrayList<>();
+			for (int i = 0; i < _names.size(); i++) {
+				if (_digests.get(i) != null) {
+					_values.add(_digests.get(i).digest());
+				} else {
+					_values.add(ByteBuffer.allocate(4).putInt((int)_checksums.get(i).getValue()).array());
+				}
+			}
+		}
+		return _values;
+	}
+
+	/**
+	 * Returns the values as hexadecimal strings in the order of the names.
+	 * No more bytes can be fed after that.
+	 */
+	public List<String> values() {
+		List<String> values = new ArrayList<>();
+		for (byte[] value : finish()) {
+			values.add(HexString.toString(value));
+		}
+		return values;
+	}
+
+	/**
+	 * Returns the value of the given name, or null if it is not computed.
+	 * No more bytes can be fed after that.
+	 */
+	public byte[] value(String name) {
+		int index = _names.indexOf(name.toUpperCase());
+		return index >= 0 ? finish().get(index) : null;
+	}
+
+	/**
+	 * Prints one line per digest in the manner of "openssl dgst", labeling the stream with the given name.
+	 */
+	public void print(PrintStream ps, String label) {
+		List<String> values = values();
+		for (int i = 0; i < _names.size(); i++) {
+			ps.printf("%s(%s)= %s\n", _names.get(i), label, values.get(i));
+		}
+	}
+
+	/**
+	 * Returns a stream that feeds every byte read from the given stream to the digests.
+	 */
+	public InputStream tee(InputStream in) {
+		return new InputStream() {
+
+			@Override
+			public int read() throws IOException {
+				int c = in.read();
+				if (c >= 0) {
+					update(new byte[] { (byte)c }, 0, 1);
+				}
+				return c;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = in.read(b, off, len);
+				if (n > 0) {
+					update(b, off, n);
+				}
+				return n;
+			}
+
+			@Override
+			public int available() throws IOException {
+				return in.available();
+			}
+
+			@Override
+			public void close() throws IOException {
+				in.close();
+			}
+
+		};
+	}
+
+	/**
+	 * Returns a stream that feeds every byte written to the digests on its way to the given stream.
+	 */
+	public OutputStream tee(OutputStream out) {
+		return new OutputStream() {
+
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte)b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				update(b, off, len);
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void flush() throws IOException {
+				out.flush();
+			}
+
+			@Override
+			public void close() throws IOException {
+				out.close();
+			}
+
+		};
+	}
+
+}
@@ -1,39 +1,61 @@
 package com.hideakin.util;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 public class HexString {
 
+	private static final byte[] TEXT = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+
+	/**
+	 * Two ASCII digits of every byte value, high digit first.
+	 */
+	private static final byte[] PAIRS = new byte[256 * 2];
+
+	/**
+	 * Value of every ASCII code as a hexadecimal digit, or -1.
+	 */
+	private static final byte[] DIGITS = new byte[128];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			PAIRS[i * 2 + 0] = TEXT[i >> 4];
+			PAIRS[i * 2 + 1] = TEXT[i & 0xF];
+		}
+		Arrays.fill(DIGITS, (byte)-1);
+		for (int i = 0; i < 10; i++) {
+			DIGITS['0' + i] = (byte)i;
+		}
+		for (int i = 0; i < 6; i++) {
+			DIGITS['A' + i] = (byte)(10 + i);
+			DIGITS['a' + i] = (byte)(10 + i);
+		}
+	}
+
+	/**
+	 * Returns the value of the given character as a hexadecimal digit, or -1 if it is not one.
+	 */
+	public static int digit(int c) {
+		return (c & ~0x7F) == 0 ? DIGITS[c] : -1;
+	}
+
 	public static byte[] parse(String value) {
 		byte[] buf = new byte[value.length() / 2];
 		int i = 0;
 		int j = 0;
 		while (j < value.length()) {
-			char c = value.charAt(j++);
-			int d;
-			if ('0' <= c && c <= '9') {
-				d = c - '0';
-			} else if ('A' <= c && c <= 'F') {
-				d = 10 + c - 'A';
-			} else if ('a' <= c && c <= 'f') {
-				d = 10 + c - 'a';
-			} else {
+			int d = digit(value.charAt(j++));
+			if (d < 0) {
 				continue;
 			}
 			if (j == value.length()) {
 				throw new RuntimeException(String.format("Parse error at %d: %s", j - 1, value));
 			}
-			c = value.charAt(j++);
-			if ('0' <= c && c <= '9') {
-				d = d * 16 + c - '0';
-			} else if ('A' <= c && c <= 'F') {
-				d = d * 16 + 10 + c - 'A';
-			} else if ('a' <= c && c <= 'f') {
-				d = d * 16 + 10 + c - 'a';
-			} else {
+			int e = digit(value.charAt(j++));
+			if (e < 0) {
 				throw new RuntimeException(String.format("Parse error at %d: %s", j - 1, value));
 			}
-			buf[i++] = (byte)d;
+			buf[i++] = (byte)((d << 4) | e);
 		}
 		if (i < buf.length) {
 			buf = Arrays.copyOf(buf, i);
@@ -41,15 +63,23 @@ public class HexString {
 		return buf;
 	}
 
-	private static final char[] TEXT = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+	/**
+	 * Writes two ASCII digits for every one of the len bytes from src[off] into dst from dst[dstOff].
+	 * Returns the number of bytes written.
+	 */
+	public static int encode(byte[] src, int off, int len, byte[] dst, int dstOff) {
+		for (int i = 0; i < len; i++) {
+			int k = (src[off + i] & 0xFF) << 1;
+			dst[dstOff + i * 2 + 0] = PAIRS[k + 0];
+			dst[dstOff + i * 2 + 1] = PAIRS[k + 1];
+		}
+		return len * 2;
+	}
 
 	public static String toString(byte[] value) {
-		StringBuilder s = new StringBuilder();
-		for (byte b : value) {
-			s.append(TEXT[(b >> 4) & 0xF]);
-			s.append(TEXT[(b >> 0) & 0xF]);
-		}
-		return s.toString();
+		byte[] buf = new byte[value.length * 2];
+		encode(value, 0, value.length, buf, 0);
+		return new String(buf, StandardCharsets.US_ASCII);
 	}
 
 }
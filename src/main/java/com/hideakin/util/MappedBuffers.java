@@ -0,0 +1,48 @@
+package com.hideakin.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Releases memory mappings without waiting for the garbage collector.
+ *
+ * A mapping stays alive until its buffer is collected, which pins address space
+ * and keeps the file from being truncated, moved or deleted on Windows.
+ * Release goes through sun.misc.Unsafe.invokeCleaner of the jdk.unsupported module;
+ * on a JVM without it, release does nothing and the mapping is left to the collector.
+ * A released buffer must not be accessed again.
+ */
+public class MappedBuffers {
+
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> clazz = Class.forName("sun.misc.Unsafe");
+			Field field = clazz.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+			invokeCleaner = clazz.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (Exception e) {
+			unsafe = null;
+			invokeCleaner = null;
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	public static void release(ByteBuffer buf) {
+		if (buf != null && buf.isDirect() && INVOKE_CLEANER != null) {
+			try {
+				INVOKE_CLEANER.invoke(UNSAFE, buf);
+			} catch (Exception e) {
+				// left to the garbage collector
+			}
+		}
+	}
+
+}
@@ -0,0 +1,244 @@
+package com.hideakin.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the data written into independent blocks on an executor, pigz-style, and writes them in order.
+ *
+ * Layout:
+ *   header : magic (8) | version (1) | level (1) | reserved (2) | block size (4, big-endian)
+ *   block  : payload length (4, big-endian; the top bit set if stored) | original length (4, big-endian) | payload
+ *   end    : eight zero bytes
+ *
+ * Every block is deflated on its own, so that blocks can be compressed and inflated in any order.
+ * A block that does not get smaller is stored as is.
+ * The stream writes the blocks and the end only; the caller places the header, so that it can go
+ * in the clear ahead of the ciphertext and tell decryption that the plaintext is compressed.
+ * BlockInflaterOutputStream reads the blocks back.
+ */
+public class ParallelDeflaterOutputStream extends OutputStream {
+
+	public static final byte[] MAGIC = { (byte)0x89, 'M', 'Y', 'C', 'Z', '\r', '\n', 0x1A };
+	public static final int HEADER_LENGTH = 16;
+	public static final int BLOCK_HEADER_LENGTH = 8;
+	public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+	public static final int MAX_BLOCK_SIZE = 16 * 1024 * 1024;
+	static final byte VERSION = 1;
+	static final int STORED = 0x80000000;
+
+	private final OutputStream _out;
+	private final int _level;
+	private final int _blockSize;
+	private final Executor _executor;
+	private final int _maxInFlight;
+	private final ArrayDeque<CompletableFuture<byte[]>> _pending = new ArrayDeque<>();
+	private final ConcurrentLinkedQueue<Deflater> _deflaters = new ConcurrentLinkedQueue<>();
+	private byte[] _buf;
+	private int _count = 0;
+	private boolean _finished = false;
+
+	public ParallelDeflaterOutputStream(OutputStream out, int level, Executor executor, int threads) throws IOException {
+		this(out, level, DEFAULT_BLOCK_SIZE, executor, threads);
+	}
+
+	public ParallelDeflaterOutputStream(OutputStream out, int level, int blockSize, Executor executor, int threads) throws IOException {
+		if (blockSize < 1 || MAX_BLOCK_SIZE < blockSize) {
+			throw new IllegalArgumentException("Block size is out of range.");
+		}
+		_out = out;
+		_level = level;
+		_blockSize = blockSize;
+		_executor = executor;
+		_maxInFlight = Math.max(2, threads * 2);
+		_buf = new byte[blockSize];
+	}
+
+	public byte[] header() {
+		return header(_level, _blockSize);
+	}
+
+	/**
+	 * Returns the header that the caller writes ahead of a stream of the given level and block size.
+	 */
+	public static byte[] header(int level, int blockSize) {
+		byte[] header = new byte[HEADER_LENGTH];
+		System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+		header[8] = VERSION;
+		header[9] = (byte)level;
+		putInt(header, 12, blockSize);
+		return header;
+	}
+
+	/**
+	 * Returns the block size given by the header, checking that it is in range.
+	 */
+	public static int blockSizeOf(byte[] header) throws IOException {
+		int blockSize = getInt(header, 12);
+		if (blockSize < 1 || MAX_BLOCK_SIZE < blockSize) {
+			throw new IOException("Compressed stream is corrupted.");
+		}
+		return blockSize;
+	}
+
+	/**
+	 * Returns true if the given bytes start with the header of this format.
+	 */
+	public static boolean isHeader(byte[] b, int off, int len) {
+		if (len < HEADER_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (b[off + i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return b[off + 8] == VERSION;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte)b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (_finished) {
+			throw new IOException("Stream is already finished.");
+		}
+		while (len > 0) {
+			int n = Math.min(len, _blockSize - _count);
+			System.arraycopy(b, off, _buf, _count, n);
+			_count += n;
+			off += n;
+			len -= n;
+			if (_count == _blockSize) {
+				submit();
+			}
+		}
+	}
+
+	private void submit() throws IOException {
+		byte[] data = _buf;
+		int length = _count;
+		_pending.add(CompletableFuture.supplyAsync(() -> encode(data, length), _executor));
+		_buf = new byte[_blockSize];
+		_count = 0;
+		while (_pending.size() > _maxInFlight) {
+			writeNext();
+		}
+	}
+
+	private void writeNext() throws IOException {
+		try {
+			_out.write(_pending.poll().get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	/**
+	 * Compresses one block with a Deflater of this stream; there are never more of them than blocks in flight.
+	 */
+	private byte[] encode(byte[] data, int length) {
+		Deflater deflater = _deflaters.poll();
+		if (deflater == null) {
+			deflater = new Deflater(_level);
+		}
+		try {
+			return encode(deflater, data, length);
+		} finally {
+			deflater.reset();
+			_deflaters.add(deflater);
+		}
+	}
+
+	private static byte[] encode(Deflater deflater, byte[] data, int length) {
+		deflater.setInput(data, 0, length);
+		deflater.finish();
+		byte[] block = new byte[BLOCK_HEADER_LENGTH + length];
+		int n = 0;
+		while (!deflater.finished() && BLOCK_HEADER_LENGTH + n < block.length) {
+			n += deflater.deflate(block, BLOCK_HEADER_LENGTH + n, block.length - BLOCK_HEADER_LENGTH - n);
+		}
+		if (!deflater.finished() || n >= length) {
+			// does not compress
+			System.arraycopy(data, 0, block, BLOCK_HEADER_LENGTH, length);
+			putInt(block, 0, STORED | length);
+			putInt(block, 4, length);
+			return block;
+		}
+		putInt(block, 0, n);
+		putInt(block, 4, length);
+		byte[] result = new byte[BLOCK_HEADER_LENGTH + n];
+		System.arraycopy(block, 0, result, 0, result.length);
+		return result;
+	}
+
+	/**
+	 * Writes the pending blocks and the end marker without closing the underlying stream.
+	 */
+	public void finish() throws IOException {
+		if (!_finished) {
+			_finished = true;
+			try {
+				if (_count > 0) {
+					submit();
+				}
+				while (!_pending.isEmpty()) {
+					writeNext();
+				}
+				_out.write(new byte[BLOCK_HEADER_LENGTH]);
+			} finally {
+				release();
+			}
+		}
+	}
+
+	/**
+	 * Waits for the blocks still being compressed, if finishing failed, and frees the native memory of the Deflaters.
+	 */
+	private void release() {
+		for (CompletableFuture<byte[]> future : _pending) {
+			future.exceptionally((e) -> null).join();
+		}
+		_pending.clear();
+		Deflater deflater;
+		while ((deflater = _deflaters.poll()) != null) {
+			deflater.end();
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		_out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		finish();
+		_out.close();
+	}
+
+	static void putInt(byte[] b, int off, int value) {
+		b[off + 0] = (byte)(value >> 24);
+		b[off + 1] = (byte)(value >> 16);
+		b[off + 2] = (byte)(value >> 8);
+		b[off + 3] = (byte)(value >> 0);
+	}
+
+	static int getInt(byte[] b, int off) {
+		return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+	}
+
+}
@@ -1,5 +1,8 @@
 package com.hideakin.util;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class TextHelpers {
 
 	public static String numberOfBytes(long count) {
@@ -21,4 +24,40 @@ public class TextHelpers {
 		return s.toString();
 	}
 
+	/**
+	 * Splits a line into arguments separated by whitespaces.
+	 * A double-quoted part may contain whitespaces; the quotes themselves are removed.
+	 */
+	public static String[] splitArguments(String line) {
+		List<String> args = new ArrayList<>();
+		StringBuilder s = null;
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				quoted = !quoted;
+				if (s == null) {
+					s = new StringBuilder();
+				}
+			} else if (!quoted && Character.isWhitespace(c)) {
+				if (s != null) {
+					args.add(s.toString());
+					s = null;
+				}
+			} else {
+				if (s == null) {
+					s = new StringBuilder();
+				}
+				s.append(c);
+			}
+		}
+		if (quoted) {
+			throw new RuntimeException("Unterminated quotation: " + line);
+		}
+		if (s != null) {
+			args.add(s.toString());
+		}
+		return args.toArray(new String[args.size()]);
+	}
+
 }
@@ -0,0 +1,73 @@
+package com.hideakin.mycrypto;
+
+import static org.junit.Assert.*;
+
+import java.security.Provider;
+import java.security.Security;
+
+import javax.crypto.Cipher;
+
+import org.junit.Test;
+
+public class CipherCacheTest {
+
+	private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+
+	@Test
+	public void test_hit() throws Exception {
+		CipherCache cache = new CipherCache(2);
+		byte[] key1 = new byte[16];
+		byte[] key2 = new byte[16];
+		key2[0] = 1;
+		Cipher c1 = cache.acquire(TRANSFORMATION, null, key1);
+		assertEquals(0, cache.hits());
+		assertEquals(1, cache.misses());
+		cache.release(TRANSFORMATION, null, key1, c1);
+		assertSame(c1, cache.acquire(TRANSFORMATION, null, key1.clone()));
+		assertEquals(1, cache.hits());
+		assertNotSame(c1, cache.acquire(TRANSFORMATION, null, key2));
+		assertEquals(2, cache.misses());
+	}
+
+	@Test
+	public void test_exclusive() throws Exception {
+		CipherCache cache = new CipherCache(2);
+		byte[] key = new byte[16];
+		Cipher c1 = cache.acquire(TRANSFORMATION, null, key);
+		Cipher c2 = cache.acquire(TRANSFORMATION, null, key);
+		assertNotSame(c1, c2);
+		assertEquals(2, cache.misses());
+	}
+
+	@Test
+	public void test_eviction() throws Exception {
+		CipherCache cache = new CipherCache(2);
+		byte[][] keys = new byte[3][16];
+		Cipher[] ciphers = new Cipher[3];
+		for (int i = 0; i < 3; i++) {
+			keys[i][0] = (byte)i;
+			ciphers[i] = cache.acquire(TRANSFORMATION, null, keys[i]);
+		}
+		for (int i = 0; i < 3; i++) {
+			cache.release(TRANSFORMATION, null, keys[i], ciphers[i]);
+		}
+		// the least recently released one is dropped
+		assertNotSame(ciphers[0], cache.acquire(TRANSFORMATION, null, keys[0]));
+		assertSame(ciphers[1], cache.acquire(TRANSFORMATION, null, keys[1]));
+		assertSame(ciphers[2], cache.acquire(TRANSFORMATION, null, keys[2]));
+	}
+
+	@Test
+	public void test_provider() throws Exception {
+		CipherCache cache = new CipherCache(2);
+		Provider provider = Security.getProvider("SunJCE");
+		byte[] key = new byte[16];
+		Cipher c1 = cache.acquire(TRANSFORMATION, provider, key);
+		assertSame(provider, c1.getProvider());
+		cache.release(TRANSFORMATION, provider, key, c1);
+		// a job that has not chosen the provider does not get the Cipher of one that has
+		assertNotSame(c1, cache.acquire(TRANSFORMATION, null, key));
+		assertSame(c1, cache.acquire(TRANSFORMATION, provider, key));
+	}
+
+}
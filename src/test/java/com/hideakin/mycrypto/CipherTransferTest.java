@@ -0,0 +1,114 @@
+package com.hideakin.mycrypto;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+public class CipherTransferTest {
+
+	private static final int CHUNK_SIZE = 8192;
+	private static final int CHUNKS = 2000;
+
+	private static final SecretKeySpec KEY = new SecretKeySpec(new byte[32], "AES");
+	private static final byte[] IV = new byte[16];
+
+	/**
+	 * Supplies the given number of chunks without allocating anything.
+	 */
+	private static class ChunkInputStream extends InputStream {
+
+		private int _remaining;
+
+		public ChunkInputStream(int chunks) {
+			_remaining = chunks;
+		}
+
+		@Override
+		public int read() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (_remaining == 0) {
+				return -1;
+			}
+			_remaining--;
+			return Math.min(len, CHUNK_SIZE);
+		}
+
+	}
+
+	private static final OutputStream DISCARD = new OutputStream() {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+
+	};
+
+	private static long allocatedBytes() {
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static long measure(CipherTransfer transfer, int chunks) throws Exception {
+		InputStream in = new ChunkInputStream(chunks);
+		long before = allocatedBytes();
+		transfer.update(in, DISCARD);
+		return allocatedBytes() - before;
+	}
+
+	private static void assertNoAllocationPerChunk(Cipher cipher) throws Exception {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		CipherTransfer transfer = new CipherTransfer(cipher, CHUNK_SIZE);
+		for (int i = 0; i < 10; i++) {
+			measure(transfer, CHUNKS); // warms up
+		}
+		long allocated = Long.MAX_VALUE;
+		for (int i = 0; i < 5 && allocated >= CHUNKS; i++) {
+			allocated = measure(transfer, CHUNKS);
+		}
+		System.out.printf("#%s %d bytes allocated for %d chunks\n", cipher.getAlgorithm(), allocated, CHUNKS);
+		assertTrue(allocated < CHUNKS);
+	}
+
+	@Test
+	public void test_cbc_allocation() throws Exception {
+		Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+		cipher.init(Cipher.ENCRYPT_MODE, KEY, new IvParameterSpec(IV));
+		assertNoAllocationPerChunk(cipher);
+	}
+
+	@Test
+	public void test_ctr_allocation() throws Exception {
+		Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+		cipher.init(Cipher.ENCRYPT_MODE, KEY, new IvParameterSpec(IV));
+		assertNoAllocationPerChunk(cipher);
+	}
+
+	@Test
+	public void test_doFinal() throws Exception {
+		Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+		cipher.init(Cipher.ENCRYPT_MODE, KEY, new IvParameterSpec(IV));
+		CipherTransfer transfer = new CipherTransfer(cipher, CHUNK_SIZE);
+		transfer.update(new ChunkInputStream(3), DISCARD);
+		transfer.doFinal(DISCARD);
+		assertEquals(3 * CHUNK_SIZE, transfer.inBytes());
+		assertEquals(3 * CHUNK_SIZE + 16, transfer.outBytes());
+	}
+
+}
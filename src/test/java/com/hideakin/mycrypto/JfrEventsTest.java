@@ -0,0 +1,70 @@
+package com.hideakin.mycrypto;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class JfrEventsTest {
+
+	@Test
+	public void test_job_events() throws Exception {
+		Path dir = Files.createTempDirectory("JfrEventsTest");
+		Path inPath = dir.resolve("in");
+		Path outPath = dir.resolve("out");
+		Path jfrPath = dir.resolve("recording.jfr");
+		byte[] data = new byte[1000000];
+		new Random(1).nextBytes(data);
+		Files.write(inPath, data);
+		try (Recording recording = new Recording()) {
+			for (String name : new String[] { "Job", "Open", "CipherInit", "Chunk", "Commit" }) {
+				recording.enable("com.hideakin.mycrypto." + name).withoutThreshold();
+			}
+			recording.start();
+			MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(new String[] {
+					"aes-256-cbc", "-e", inPath.toString(), "-o", outPath.toString(),
+					"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+					"-i", "B87E2F0E1BEB474894C501960ECBE847",
+					"-bufsize", "1K"
+			});
+			app.run();
+			recording.stop();
+			recording.dump(jfrPath);
+		}
+		List<RecordedEvent> events = RecordingFile.readAllEvents(jfrPath);
+		Map<String, Integer> counts = new HashMap<>();
+		RecordedEvent job = null;
+		for (RecordedEvent event : events) {
+			String name = event.getEventType().getName();
+			counts.merge(name, 1, Integer::sum);
+			if (name.equals("com.hideakin.mycrypto.Job")) {
+				job = event;
+			}
+		}
+		assertEquals(Integer.valueOf(1), counts.get("com.hideakin.mycrypto.Job"));
+		assertEquals(Integer.valueOf(2), counts.get("com.hideakin.mycrypto.Open"));
+		assertEquals(Integer.valueOf(1), counts.get("com.hideakin.mycrypto.CipherInit"));
+		assertEquals(Integer.valueOf(1), counts.get("com.hideakin.mycrypto.Commit"));
+		// 977 chunks of 1 KiB
+		assertEquals(Integer.valueOf(16), counts.get("com.hideakin.mycrypto.Chunk"));
+		assertEquals("AES/CBC/PKCS5Padding", job.getString("transformation"));
+		assertEquals(data.length, job.getLong("inBytes"));
+		assertEquals(data.length + 16 - data.length % 16, job.getLong("outBytes"));
+		assertTrue(job.getBoolean("succeeded"));
+		for (Path path : new Path[] { inPath, outPath, jfrPath, dir }) {
+			Files.deleteIfExists(path);
+		}
+	}
+
+}
@@ -2,14 +2,40 @@ package com.hideakin.mycrypto;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import com.hideakin.util.HexString;
+import com.hideakin.util.ParallelDeflaterOutputStream;
 
 public class MyCryptographyUtilityTest {
 
@@ -24,7 +50,7 @@ public class MyCryptographyUtilityTest {
 	public void setUp() throws Exception {
 		Path path = Paths.get(TMPDIR);
 		if (Files.exists(path)) {
-			Files.list(path).forEach((p) -> {
+			Files.walk(path).filter((p) -> !p.equals(path)).sorted(Comparator.reverseOrder()).forEach((p) -> {
 				try {
 					System.out.printf("deleting %s\n", p);
 					Files.delete(p);
@@ -952,4 +978,1430 @@ public class MyCryptographyUtilityTest {
 		assertEquals(DATA4, actual);
 	}
 
+	@Test
+	public void test_ctr_1_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_ctr_1_1.in");
+		Path outPath = Paths.get(TMPDIR, "test_ctr_1_1.out");
+		byte[] inData = DATA2.getBytes();
+		Files.write(inPath, inData);
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-ctr",
+				"-e", inPath.toString(),
+				"-o", outPath.toString(),
+				"-K", "xyzzy",
+				"-I", "20241210"
+		});
+		app.run();
+		byte[] result = Files.readAllBytes(outPath);
+		String actual = HexString.toString(result);
+		System.out.printf("# IN %s\n", HexString.toString(inData));
+		System.out.printf("#OUT %s\n", actual);
+		assertEquals("49087F96EDE81A95E4EA7B10C0A6BC79C3", actual);
+	}
+
+	@Test
+	public void test_ctr_1_2() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_ctr_1_2.in");
+		Path outPath = Paths.get(TMPDIR, "test_ctr_1_2.out");
+		byte[] inData = HexString.parse("49087F96EDE81A95E4EA7B10C0A6BC79C3");
+		Files.write(inPath, inData);
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-ctr",
+				"-d", inPath.toString(),
+				"-o", outPath.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-i", "B87E2F0E1BEB474894C501960ECBE847"
+		});
+		app.run();
+		byte[] result = Files.readAllBytes(outPath);
+		assertEquals(17, result.length);
+		String actual = new String(result);
+		System.out.printf("#%s\n", actual);
+		assertEquals(DATA2, actual);
+	}
+
+	@Test
+	public void test_ctr_2_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_ctr_2_1.in");
+		Path outPath = Paths.get(TMPDIR, "test_ctr_2_1.out");
+		Path decPath = Paths.get(TMPDIR, "test_ctr_2_1.dec");
+		byte[] inData = randomBytes(2 * ParallelCounterMode.SEGMENT_SIZE + 1000);
+		Files.write(inPath, inData);
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-128-ctr",
+				"-e", inPath.toString(),
+				"-o", outPath.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE",
+				"-i", "B87E2F0E1BEB4748FFFFFFFFFFFFFFFF"
+		});
+		app.run();
+		Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+		cipher.init(Cipher.ENCRYPT_MODE,
+				new SecretKeySpec(HexString.parse("184858A00FD7971F810848266EBCECEE"), "AES"),
+				new IvParameterSpec(HexString.parse("B87E2F0E1BEB4748FFFFFFFFFFFFFFFF")));
+		assertArrayEquals(cipher.doFinal(inData), Files.readAllBytes(outPath));
+		app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-128-ctr",
+				"-d", outPath.toString(),
+				"-o", decPath.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE",
+				"-i", "B87E2F0E1BEB4748FFFFFFFFFFFFFFFF"
+		});
+		app.run();
+		assertArrayEquals(inData, Files.readAllBytes(decPath));
+	}
+
+	@Test
+	public void test_segmented_1_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_segmented_1_1.in");
+		Path outPath = Paths.get(TMPDIR, "test_segmented_1_1.out");
+		Path decPath = Paths.get(TMPDIR, "test_segmented_1_1.dec");
+		byte[] inData = randomBytes(1000 * 1024 + 7);
+		Files.write(inPath, inData);
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-gcm",
+				"-segmented",
+				"-segsize", "4096",
+				"-e", inPath.toString(),
+				"-o", outPath.toString(),
+				"-K", "xyzzy",
+				"-N", "20241210",
+				"-t", "16",
+				"-A", "I'll be back."
+		});
+		app.run();
+		long segments = (inData.length + 4095) / 4096;
+		assertEquals(SegmentedGcm.HEADER_LENGTH + inData.length + segments * 16, Files.size(outPath));
+		app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-gcm",
+				"-segmented",
+				"-d", outPath.toString(),
+				"-o", decPath.toString(),
+				"-K", "xyzzy",
+				"-N", "20241210",
+				"-A", "I'll be back."
+		});
+		app.run();
+		assertArrayEquals(inData, Files.readAllBytes(decPath));
+	}
+
+	@Test
+	public void test_segmented_1_2() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_segmented_1_2.in");
+		Path outPath = Paths.get(TMPDIR, "test_segmented_1_2.out");
+		Path decPath = Paths.get(TMPDIR, "test_segmented_1_2.dec");
+		byte[] inData = randomBytes(4096 * 3);
+		Files.write(inPath, inData);
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-128-gcm",
+				"-segmented",
+				"-segsize", "4096",
+				"-e", inPath.toString(),
+				"-o", outPath.toString(),
+				"-K", "xyzzy",
+				"-N", "20241210"
+		});
+		app.run();
+		// drops the final segment
+		byte[] truncated = Arrays.copyOf(Files.readAllBytes(outPath), SegmentedGcm.HEADER_LENGTH + 2 * (4096 + 12));
+		Files.write(outPath, truncated);
+		MyCryptographyUtilityApplication app2 = new MyCryptographyUtilityApplication();
+		app2.commandLineParameters().process(new String[] {
+				"aes-128-gcm",
+				"-segmented",
+				"-d", outPath.toString(),
+				"-o", decPath.toString(),
+				"-K", "xyzzy",
+				"-N", "20241210"
+		});
+		assertThrows(Exception.class, () -> app2.run());
+	}
+
+	@Test
+	public void test_mmap_1_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_mmap_1_1.in");
+		Path outPath = Paths.get(TMPDIR, "test_mmap_1_1.out");
+		byte[] inData = DATA2.getBytes();
+		Files.write(inPath, inData);
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-cbc",
+				"-mmap",
+				"-e", inPath.toString(),
+				"-o", outPath.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-i", "B87E2F0E1BEB474894C501960ECBE847"
+		});
+		app.run();
+		byte[] result = Files.readAllBytes(outPath);
+		String actual = HexString.toString(result);
+		System.out.printf("# IN %s\n", HexString.toString(inData));
+		System.out.printf("#OUT %s\n", actual);
+		assertEquals("C3578853E13E75D944113C4637BFD5FA31534153CB71E59ECF786D3F0A4814D1", actual);
+	}
+
+	@Test
+	public void test_mmap_2_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_mmap_2_1.in");
+		Path outPath = Paths.get(TMPDIR, "test_mmap_2_1.out");
+		Path decPath = Paths.get(TMPDIR, "test_mmap_2_1.dec");
+		byte[] inData = randomBytes(3 * 1024 * 1024 + 5);
+		Files.write(inPath, inData);
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-192-gcm",
+				"-mmap",
+				"-e", inPath.toString(),
+				"-o", outPath.toString(),
+				"-K", "xyzzy",
+				"-N", "20241210"
+		});
+		app.run();
+		assertEquals(inData.length + 12, Files.size(outPath));
+		app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-192-gcm",
+				"-mmap",
+				"-d", outPath.toString(),
+				"-o", decPath.toString(),
+				"-K", "xyzzy",
+				"-N", "20241210"
+		});
+		try {
+			app.run();
+			fail("GCM decryption ran with memory-mapped I/O.");
+		} catch (RuntimeException e) {
+			assertEquals("Memory-mapped I/O cannot be specified for GCM decryption.", e.getMessage());
+		}
+		app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-192-gcm",
+				"-d", outPath.toString(),
+				"-o", decPath.toString(),
+				"-K", "xyzzy",
+				"-N", "20241210"
+		});
+		app.run();
+		assertArrayEquals(inData, Files.readAllBytes(decPath));
+	}
+
+	@Test
+	public void test_mmap_3_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_mmap_3_1.in");
+		Path outPath = Paths.get(TMPDIR, "test_mmap_3_1.out");
+		Path decPath = Paths.get(TMPDIR, "test_mmap_3_1.dec");
+		// more than two windows, the last one partial
+		byte[] inData = randomBytes(3 * 4096 + 1000);
+		Files.write(inPath, inData);
+		// the window of 1000 bytes also leaves a partial block behind in the Cipher at every window
+		for (int windowSize : new int[] { 4096, 1000 }) {
+			for (String[] args : new String[][] {
+					{ "-e", inPath.toString(), "-overwrite", outPath.toString() },
+					{ "-d", outPath.toString(), "-overwrite", decPath.toString() } }) {
+				MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+				app.commandLineParameters().process(new String[] {
+						"aes-256-cbc", "-mmap", args[0], args[1], args[2], args[3],
+						"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+						"-i", "B87E2F0E1BEB474894C501960ECBE847"
+				});
+				app.setMapWindowSize(windowSize);
+				app.run();
+			}
+			assertEquals(inData.length + 16 - inData.length % 16, Files.size(outPath));
+			assertArrayEquals(inData, Files.readAllBytes(decPath));
+		}
+	}
+
+	@Test
+	public void test_batch_1_1() throws Exception {
+		Path keyPath = Paths.get(TMPDIR, "test_batch_1_1.key");
+		Path manifestPath = Paths.get(TMPDIR, "test_batch_1_1.txt");
+		Files.write(keyPath, "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED\n".getBytes());
+		Files.write(Paths.get(TMPDIR, "test_batch_1_1.in1"), DATA1.getBytes());
+		Files.write(Paths.get(TMPDIR, "test_batch_1_1.in2"), DATA2.getBytes());
+		Files.write(manifestPath, String.join("\n",
+				"# comment",
+				String.format("-e \"%s\" -o \"%s\" -keyfile \"%s\"", Paths.get(TMPDIR, "test_batch_1_1.in1"), Paths.get(TMPDIR, "test_batch_1_1.out1"), keyPath),
+				"",
+				String.format("-e \"%s\" -o \"%s\"", Paths.get(TMPDIR, "test_batch_1_1.none"), Paths.get(TMPDIR, "test_batch_1_1.out3")),
+				String.format("-e \"%s\" -o \"%s\" -keyfile \"%s\"", Paths.get(TMPDIR, "test_batch_1_1.in2"), Paths.get(TMPDIR, "test_batch_1_1.out2"), keyPath)).getBytes());
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-cbc",
+				"-i", "B87E2F0E1BEB474894C501960ECBE847",
+				"-K", "not used if a key file is specified",
+				"-batch", manifestPath.toString(),
+				"-threads", "2"
+		});
+		try {
+			app.run();
+			fail();
+		} catch (RuntimeException e) {
+			assertEquals("1 of 3 jobs failed.", e.getMessage());
+		}
+		assertEquals("C3578853E13E75D944113C4637BFD5FAB074A85601DA8F835017C0E247103DE9", HexString.toString(Files.readAllBytes(Paths.get(TMPDIR, "test_batch_1_1.out1"))));
+		assertEquals("C3578853E13E75D944113C4637BFD5FA31534153CB71E59ECF786D3F0A4814D1", HexString.toString(Files.readAllBytes(Paths.get(TMPDIR, "test_batch_1_1.out2"))));
+		assertFalse(Files.exists(Paths.get(TMPDIR, "test_batch_1_1.out3")));
+	}
+
+	@Test
+	public void test_recursive_1_1() throws Exception {
+		Path inDir = Paths.get(TMPDIR, "test_recursive_1_1.in");
+		Path outDir = Paths.get(TMPDIR, "test_recursive_1_1.out");
+		Path decDir = Paths.get(TMPDIR, "test_recursive_1_1.dec");
+		Files.createDirectories(inDir.resolve("a").resolve("b"));
+		Files.write(inDir.resolve("1.txt"), DATA1.getBytes());
+		Files.write(inDir.resolve("a").resolve("2.txt"), DATA2.getBytes());
+		Files.write(inDir.resolve("a").resolve("b").resolve("3.bin"), randomBytes(100000));
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-cbc",
+				"-recursive",
+				"-e", inDir.toString(),
+				"-o", outDir.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-i", "B87E2F0E1BEB474894C501960ECBE847"
+		});
+		app.run();
+		assertEquals("C3578853E13E75D944113C4637BFD5FA31534153CB71E59ECF786D3F0A4814D1", HexString.toString(Files.readAllBytes(outDir.resolve("a").resolve("2.txt"))));
+		app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-cbc",
+				"-recursive",
+				"-d", outDir.toString(),
+				"-o", decDir.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-i", "B87E2F0E1BEB474894C501960ECBE847"
+		});
+		app.run();
+		assertEquals(DATA1, new String(Files.readAllBytes(decDir.resolve("1.txt"))));
+		assertEquals(DATA2, new String(Files.readAllBytes(decDir.resolve("a").resolve("2.txt"))));
+		assertArrayEquals(randomBytes(100000), Files.readAllBytes(decDir.resolve("a").resolve("b").resolve("3.bin")));
+	}
+
+	@Test
+	public void test_recursive_2_1() throws Exception {
+		Path inDir = Paths.get(TMPDIR, "test_recursive_2_1.in");
+		Path outDir = Paths.get(TMPDIR, "test_recursive_2_1.out");
+		Path decDir = Paths.get(TMPDIR, "test_recursive_2_1.dec");
+		Files.createDirectories(inDir);
+		for (int i = 0; i < 500; i++) {
+			Files.write(inDir.resolve(String.format("%03d.log", i)), randomBytes(2000 + i));
+		}
+		String[] operations = { "-e", inDir.toString(), "-o", outDir.toString(), "-d", outDir.toString(), "-o", decDir.toString() };
+		for (int i = 0; i < operations.length; i += 4) {
+			MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(new String[] {
+					"aes-128-ctr",
+					"-recursive", "-vthreads", "-maxopen", "16",
+					operations[i], operations[i + 1],
+					operations[i + 2], operations[i + 3],
+					"-k", "184858A00FD7971F810848266EBCECEE",
+					"-i", "B87E2F0E1BEB474894C501960ECBE847"
+			});
+			app.run();
+		}
+		for (int i = 0; i < 500; i++) {
+			assertArrayEquals(randomBytes(2000 + i), Files.readAllBytes(decDir.resolve(String.format("%03d.log", i))));
+		}
+	}
+
+	@Test
+	public void test_server_1_1() throws Exception {
+		Path socketPath = Paths.get(TMPDIR, "test_server_1_1.sock");
+		Path inPath = Paths.get(TMPDIR, "test_server_1_1.in");
+		Path outPath = Paths.get(TMPDIR, "test_server_1_1.out");
+		Files.write(inPath, DATA2.getBytes());
+		MyCryptographyUtilityApplication server = new MyCryptographyUtilityApplication();
+		server.commandLineParameters().process(new String[] {
+				"aes-256-cbc",
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-server", socketPath.toString(),
+				"-sharekey",
+				"-threads", "1"
+		});
+		Thread thread = new Thread(() -> {
+			try {
+				server.run();
+			} catch (Exception e) {
+				System.out.printf("ERROR: %s\n", e.getMessage());
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		for (int i = 0; i < 100 && !Files.exists(socketPath); i++) {
+			Thread.sleep(100);
+		}
+		MyCryptographyUtilityApplication client = new MyCryptographyUtilityApplication();
+		client.commandLineParameters().process(new String[] {
+				"-client", socketPath.toString(),
+				"-e", inPath.toString(),
+				"-o", outPath.toString(),
+				"-i", "B87E2F0E1BEB474894C501960ECBE847"
+		});
+		client.run();
+		assertEquals("C3578853E13E75D944113C4637BFD5FA31534153CB71E59ECF786D3F0A4814D1", HexString.toString(Files.readAllBytes(outPath)));
+		thread.interrupt();
+		thread.join(10000);
+	}
+
+	@Test
+	public void test_server_2_1() throws Exception {
+		Path socketPath = Paths.get(TMPDIR, "test_server_2_1.sock");
+		Path inPath = Paths.get(TMPDIR, "test_server_2_1.in");
+		Path outPath = Paths.get(TMPDIR, "test_server_2_1.out");
+		Files.write(inPath, DATA2.getBytes());
+		MyCryptographyUtilityApplication server = new MyCryptographyUtilityApplication();
+		server.commandLineParameters().process(new String[] {
+				"aes-256-cbc",
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-server", socketPath.toString(),
+				"-threads", "1"
+		});
+		Thread thread = new Thread(() -> {
+			try {
+				server.run();
+			} catch (Exception e) {
+				System.out.printf("ERROR: %s\n", e.getMessage());
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		for (int i = 0; i < 100 && !Files.exists(socketPath); i++) {
+			Thread.sleep(100);
+		}
+		try {
+			assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(socketPath)));
+			// the key of the server is not shared without -sharekey
+			MyCryptographyUtilityApplication client = new MyCryptographyUtilityApplication();
+			client.commandLineParameters().process(new String[] {
+					"-client", socketPath.toString(),
+					"-e", inPath.toString(),
+					"-o", outPath.toString(),
+					"-i", "B87E2F0E1BEB474894C501960ECBE847"
+			});
+			try {
+				client.run();
+				fail("Job used the key of the server.");
+			} catch (RuntimeException e) {
+				assertEquals("Job failed on server.", e.getMessage());
+			}
+			assertFalse(Files.exists(outPath));
+			// a request with a bad number of arguments is answered with an error
+			try (SocketChannel c = SocketChannel.open(UnixDomainSocketAddress.of(socketPath))) {
+				DataOutputStream out = new DataOutputStream(Channels.newOutputStream(c));
+				DataInputStream in = new DataInputStream(Channels.newInputStream(c));
+				out.writeUTF(TMPDIR);
+				out.writeInt(-1);
+				out.flush();
+				assertEquals(1, in.readInt());
+				byte[] messages = new byte[in.readInt()];
+				in.readFully(messages);
+				assertEquals("ERROR: Number of arguments is out of range: -1\n", new String(messages, StandardCharsets.UTF_8));
+			}
+			// neither the help nor the speed measurement runs on the server
+			for (String option : new String[] { "-help", "-speed" }) {
+				try (SocketChannel c = SocketChannel.open(UnixDomainSocketAddress.of(socketPath))) {
+					DataOutputStream out = new DataOutputStream(Channels.newOutputStream(c));
+					DataInputStream in = new DataInputStream(Channels.newInputStream(c));
+					out.writeUTF(TMPDIR);
+					out.writeInt(1);
+					out.writeUTF(option);
+					out.flush();
+					assertEquals(1, in.readInt());
+					byte[] messages = new byte[in.readInt()];
+					in.readFully(messages);
+					assertTrue(new String(messages, StandardCharsets.UTF_8).contains("Help and speed measurement cannot be run in batch/server mode."));
+				}
+			}
+		} finally {
+			thread.interrupt();
+			thread.join(10000);
+		}
+	}
+
+	@Test
+	public void test_bufsize_1_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_bufsize_1_1.in");
+		byte[] data = randomBytes(300000);
+		Files.write(inPath, data);
+		String[] sizes = { "16", "1K", "auto", "probe" };
+		for (String size : sizes) {
+			Path encPath = Paths.get(TMPDIR, "test_bufsize_1_1." + size + ".enc");
+			Path decPath = Paths.get(TMPDIR, "test_bufsize_1_1." + size + ".dec");
+			MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(new String[] {
+					"aes-256-cbc", "-e", inPath.toString(), "-o", encPath.toString(),
+					"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+					"-i", "B87E2F0E1BEB474894C501960ECBE847",
+					"-bufsize", size
+			});
+			app.run();
+			app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(new String[] {
+					"aes-256-cbc", "-d", encPath.toString(), "-o", decPath.toString(),
+					"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+					"-i", "B87E2F0E1BEB474894C501960ECBE847",
+					"-bufsize", size
+			});
+			app.run();
+			assertArrayEquals(data, Files.readAllBytes(decPath));
+		}
+	}
+
+	@Test
+	public void test_bufsize_1_2() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_bufsize_1_2.in");
+		Path encPath = Paths.get(TMPDIR, "test_bufsize_1_2.enc");
+		Path decPath = Paths.get(TMPDIR, "test_bufsize_1_2.dec");
+		// large enough for every candidate of probe to read its own region;
+		// auto picks 512K for it, which is not among the candidates
+		byte[] data = randomBytes(8 * 1024 * 1024);
+		Files.write(inPath, data);
+		assertEquals("BUF 524288", bufferSizeLine(inPath, encPath, "auto"));
+		String line = bufferSizeLine(inPath, encPath, "probe");
+		assertTrue(line, Arrays.asList("BUF 16384", "BUF 65536", "BUF 262144", "BUF 1048576").contains(line));
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-cbc", "-d", encPath.toString(), "-o", decPath.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-i", "B87E2F0E1BEB474894C501960ECBE847"
+		});
+		app.run();
+		assertArrayEquals(data, Files.readAllBytes(decPath));
+	}
+
+	/**
+	 * Encrypts the input with the given -bufsize and returns the line that tells the chosen size.
+	 */
+	private static String bufferSizeLine(Path inPath, Path encPath, String size) throws Exception {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		PrintStream stdout = System.out;
+		System.setOut(new PrintStream(buf, true));
+		try {
+			MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(new String[] {
+					"aes-256-cbc", "-e", inPath.toString(), "-overwrite", encPath.toString(),
+					"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+					"-i", "B87E2F0E1BEB474894C501960ECBE847",
+					"-bufsize", size
+			});
+			app.run();
+		} finally {
+			System.setOut(stdout);
+		}
+		for (String line : buf.toString().split("\\R")) {
+			if (line.startsWith("BUF ")) {
+				return line;
+			}
+		}
+		return null;
+	}
+
+	@Test
+	public void test_bufsize_2_1() throws Exception {
+		String[] sizes = { "0", "8", "1G", "12X" };
+		for (String size : sizes) {
+			try {
+				new MyCryptographyUtilityApplication().commandLineParameters().process(new String[] { "-bufsize", size });
+				fail(size);
+			} catch (RuntimeException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void test_pipeline_1_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_pipeline_1_1.in");
+		Path encPath = Paths.get(TMPDIR, "test_pipeline_1_1.enc");
+		Path decPath = Paths.get(TMPDIR, "test_pipeline_1_1.dec");
+		byte[] data = randomBytes(1000003);
+		Files.write(inPath, data);
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-gcm", "-e", inPath.toString(), "-o", encPath.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-nonce", "B87E2F0E1BEB474894C50196",
+				"-pipeline", "-bufsize", "4K"
+		});
+		app.run();
+		app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-gcm", "-d", encPath.toString(), "-o", decPath.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-nonce", "B87E2F0E1BEB474894C50196",
+				"-pipeline"
+		});
+		app.run();
+		assertArrayEquals(data, Files.readAllBytes(decPath));
+	}
+
+	@Test
+	public void test_stats_1_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_stats_1_1.in");
+		Path outPath = Paths.get(TMPDIR, "test_stats_1_1.out");
+		Files.write(inPath, DATA2.getBytes());
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		PrintStream stdout = System.out;
+		System.setOut(new PrintStream(buf, true));
+		try {
+			MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(new String[] {
+					"aes-256-cbc", "-e", inPath.toString(), "-o", outPath.toString(),
+					"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+					"-i", "B87E2F0E1BEB474894C501960ECBE847",
+					"-stats"
+			});
+			app.run();
+		} finally {
+			System.setOut(stdout);
+		}
+		String json = null;
+		for (String line : buf.toString().split("\n")) {
+			if (line.startsWith("{")) {
+				json = line;
+			}
+		}
+		System.out.println(json);
+		assertNotNull(json);
+		assertTrue(json.startsWith("{\"transformation\":\"AES/CBC/PKCS5Padding\",\"operation\":\"encrypt\",\"inBytes\":17,\"outBytes\":32,"));
+		for (String phase : new String[] { "open", "init", "update", "doFinal", "flush", "commit" }) {
+			assertTrue(phase, json.contains("\"" + phase + "\":{\"wallNanos\":"));
+		}
+	}
+
+	@Test
+	public void test_range_1_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_range_1_1.in");
+		Path encPath = Paths.get(TMPDIR, "test_range_1_1.enc");
+		byte[] data = randomBytes(300001);
+		Files.write(inPath, data);
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-ctr", "-e", inPath.toString(), "-o", encPath.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-i", "B87E2F0E1BEB474894C50196FFFFFFFF"
+		});
+		app.run();
+		long[][] ranges = { { 0, 10 }, { 17, 100000 }, { 65535, 65537 }, { 299990, 100 }, { 400000, 10 } };
+		for (long[] range : ranges) {
+			Path decPath = Paths.get(TMPDIR, String.format("test_range_1_1.%d", range[0]));
+			app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(new String[] {
+					"aes-256-ctr", "-d", encPath.toString(), "-o", decPath.toString(),
+					"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+					"-i", "B87E2F0E1BEB474894C50196FFFFFFFF",
+					"-range", String.format("%d:%d", range[0], range[1])
+			});
+			app.run();
+			int from = (int)Math.min(range[0], data.length);
+			int to = (int)Math.min(range[0] + range[1], data.length);
+			assertArrayEquals(Arrays.copyOfRange(data, from, to), Files.readAllBytes(decPath));
+		}
+	}
+
+	@Test
+	public void test_range_2_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_range_2_1.in");
+		Path encPath = Paths.get(TMPDIR, "test_range_2_1.enc");
+		byte[] data = randomBytes(10 * 4096 + 100);
+		Files.write(inPath, data);
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-gcm", "-segmented", "-segsize", "4096",
+				"-e", inPath.toString(), "-o", encPath.toString(),
+				"-K", "xyzzy", "-N", "20241210", "-A", "I'll be back."
+		});
+		app.run();
+		long[][] ranges = { { 0, 1 }, { 4095, 2 }, { 5000, 20000 }, { 40900, 1000 }, { 0, 1000000 } };
+		for (long[] range : ranges) {
+			Path decPath = Paths.get(TMPDIR, String.format("test_range_2_1.%d.%d", range[0], range[1]));
+			app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(new String[] {
+					"aes-256-gcm", "-segmented",
+					"-d", encPath.toString(), "-o", decPath.toString(),
+					"-K", "xyzzy", "-N", "20241210", "-A", "I'll be back.",
+					"-range", String.format("%d:%d", range[0], range[1])
+			});
+			app.run();
+			int from = (int)Math.min(range[0], data.length);
+			int to = (int)Math.min(range[0] + range[1], data.length);
+			assertArrayEquals(Arrays.copyOfRange(data, from, to), Files.readAllBytes(decPath));
+		}
+		app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-gcm", "-d", encPath.toString(), "-o", Paths.get(TMPDIR, "test_range_2_1.err").toString(),
+				"-K", "xyzzy", "-N", "20241210", "-range", "0:1"
+		});
+		try {
+			app.run();
+			fail();
+		} catch (RuntimeException e) {
+			assertEquals("Range requires CTR mode or segmented format.", e.getMessage());
+		}
+	}
+
+	@Test
+	public void test_append_1_1() throws Exception {
+		Path outPath = Paths.get(TMPDIR, "test_append_1_1.out");
+		Path decPath = Paths.get(TMPDIR, "test_append_1_1.dec");
+		int[] sizes = { 100, 0, 5000, 3092, 4096 * 2, 1 };
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		for (int i = 0; i < sizes.length; i++) {
+			Path inPath = Paths.get(TMPDIR, String.format("test_append_1_1.%d", i));
+			byte[] data = randomBytes(sizes[i]);
+			Files.write(inPath, data);
+			expected.write(data);
+			MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(new String[] {
+					"aes-256-gcm", "-segmented", "-segsize", "4096",
+					"-e", inPath.toString(), "-append", outPath.toString(),
+					"-K", "xyzzy", "-A", "I'll be back."
+			});
+			app.run();
+		}
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-gcm", "-segmented",
+				"-d", outPath.toString(), "-o", decPath.toString(),
+				"-K", "xyzzy", "-A", "I'll be back."
+		});
+		app.run();
+		assertArrayEquals(expected.toByteArray(), Files.readAllBytes(decPath));
+	}
+
+	@Test
+	public void test_append_1_2() throws Exception {
+		Path outPath = Paths.get(TMPDIR, "test_append_1_2.out");
+		Path allPath = Paths.get(TMPDIR, "test_append_1_2.all");
+		Path encPath = Paths.get(TMPDIR, "test_append_1_2.enc");
+		int[] sizes = { 7, 9, 0, 100000, 33 };
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		for (int i = 0; i < sizes.length; i++) {
+			Path inPath = Paths.get(TMPDIR, String.format("test_append_1_2.%d", i));
+			byte[] data = randomBytes(sizes[i]);
+			Files.write(inPath, data);
+			expected.write(data);
+			MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(new String[] {
+					"aes-128-ctr", "-e", inPath.toString(), "-append", outPath.toString(),
+					"-k", "184858A00FD7971F810848266EBCECEE",
+					"-i", "B87E2F0E1BEB474894C50196FFFFFFFF"
+			});
+			app.run();
+		}
+		Files.write(allPath, expected.toByteArray());
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-128-ctr", "-e", allPath.toString(), "-o", encPath.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE",
+				"-i", "B87E2F0E1BEB474894C50196FFFFFFFF"
+		});
+		app.run();
+		assertArrayEquals(Files.readAllBytes(encPath), Files.readAllBytes(outPath));
+	}
+
+	@Test
+	public void test_append_2_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_append_2_1.in");
+		Path outPath = Paths.get(TMPDIR, "test_append_2_1.out");
+		Path decPath = Paths.get(TMPDIR, "test_append_2_1.dec");
+		byte[] data = randomBytes(5000);
+		Files.write(inPath, data);
+		String[] args = {
+				"aes-256-gcm", "-segmented", "-segsize", "1024",
+				"-e", inPath.toString(), "-append", outPath.toString(),
+				"-K", "xyzzy"
+		};
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(args);
+		app.run();
+		// leaves the state of an append interrupted after overwriting the final segment
+		try (FileChannel channel = FileChannel.open(outPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long position = channel.size() - 500;
+			AppendJournal.begin(channel, AppendJournal.pathOf(outPath), position);
+			channel.write(ByteBuffer.wrap(randomBytes(3000)), position);
+		}
+		app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(args);
+		app.run();
+		assertFalse(Files.exists(AppendJournal.pathOf(outPath)));
+		app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-gcm", "-segmented",
+				"-d", outPath.toString(), "-o", decPath.toString(),
+				"-K", "xyzzy"
+		});
+		app.run();
+		byte[] expected = Arrays.copyOf(data, data.length * 2);
+		System.arraycopy(data, 0, expected, data.length, data.length);
+		assertArrayEquals(expected, Files.readAllBytes(decPath));
+	}
+
+	@Test
+	public void test_append_3_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_append_3_1.in");
+		Path outPath = Paths.get(TMPDIR, "test_append_3_1.out");
+		Files.write(inPath, randomBytes(100));
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-ctr",
+				"-e", inPath.toString(), "-append", outPath.toString(),
+				"-K", "xyzzy"
+		});
+		try {
+			app.run();
+			fail("CTR append ran with a random initial vector.");
+		} catch (RuntimeException e) {
+			assertEquals("Append in CTR mode requires an initial vector.", e.getMessage());
+		}
+		assertFalse(Files.exists(outPath));
+	}
+
+	@Test
+	public void test_compress_1_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_compress_1_1.in");
+		Path encPath = Paths.get(TMPDIR, "test_compress_1_1.enc");
+		Path decPath = Paths.get(TMPDIR, "test_compress_1_1.dec");
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			text.append(i).append(' ').append(DATA3).append('\n');
+		}
+		byte[] data = text.toString().getBytes("UTF-8");
+		Files.write(inPath, data);
+		for (String codec : new String[] { "deflate", "fast" }) {
+			MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(new String[] {
+					"aes-256-gcm", "-e", inPath.toString(), "-overwrite", encPath.toString(),
+					"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+					"-nonce", "B87E2F0E1BEB474894C50196",
+					"-compress", codec
+			});
+			app.run();
+			assertTrue(Files.size(encPath) < data.length / 4);
+			app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(new String[] {
+					"aes-256-gcm", "-d", encPath.toString(), "-overwrite", decPath.toString(),
+					"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+					"-nonce", "B87E2F0E1BEB474894C50196"
+			});
+			app.run();
+			assertArrayEquals(data, Files.readAllBytes(decPath));
+		}
+	}
+
+	@Test
+	public void test_compress_2_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_compress_2_1.in");
+		Path encPath = Paths.get(TMPDIR, "test_compress_2_1.enc");
+		Path decPath = Paths.get(TMPDIR, "test_compress_2_1.dec");
+		byte[] data = randomBytes(1000003);
+		Files.write(inPath, data);
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-ctr", "-e", inPath.toString(), "-o", encPath.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-i", "B87E2F0E1BEB474894C501960ECBE847",
+				"-compress", "fast"
+		});
+		app.run();
+		// random blocks are stored, costing only their block headers
+		assertTrue(Files.size(encPath) < data.length + 1024);
+		app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-ctr", "-d", encPath.toString(), "-o", decPath.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-i", "B87E2F0E1BEB474894C501960ECBE847"
+		});
+		app.run();
+		assertArrayEquals(data, Files.readAllBytes(decPath));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void test_compress_3_1() throws Exception {
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-gcm", "-d", "in", "-o", "out",
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-nonce", "B87E2F0E1BEB474894C50196",
+				"-compress", "deflate"
+		});
+		app.run();
+	}
+
+	@Test
+	public void test_compress_4_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_compress_4_1.in");
+		Path encPath = Paths.get(TMPDIR, "test_compress_4_1.enc");
+		Path decPath = Paths.get(TMPDIR, "test_compress_4_1.dec");
+		byte[] data = new byte[300007];
+		Files.write(inPath, data);
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-ctr", "-e", inPath.toString(), "-o", encPath.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-i", "B87E2F0E1BEB474894C501960ECBE847",
+				"-compress", "deflate"
+		});
+		app.run();
+		String[][] options = { { "-mmap" }, { "-range", "0:100" } };
+		for (String[] option : options) {
+			String[] args = {
+					"aes-256-ctr", "-d", encPath.toString(), "-o", decPath.toString(),
+					"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+					"-i", "B87E2F0E1BEB474894C501960ECBE847"
+			};
+			app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(Stream.concat(Arrays.stream(args), Arrays.stream(option)).toArray(String[]::new));
+			try {
+				app.run();
+				fail(option[0]);
+			} catch (RuntimeException e) {
+				assertEquals("Compressed input cannot be decrypted with memory-mapped I/O or range.", e.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void test_compress_5_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_compress_5_1.in");
+		Path encPath = Paths.get(TMPDIR, "test_compress_5_1.enc");
+		Path decPath = Paths.get(TMPDIR, "test_compress_5_1.dec");
+		Files.write(inPath, new byte[100003]);
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-gcm", "-e", inPath.toString(), "-o", encPath.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-nonce", "B87E2F0E1BEB474894C50196",
+				"-compress", "deflate"
+		});
+		app.run();
+		// the header is in the clear but authenticated, so changing its block size fails the tag
+		byte[] encrypted = Files.readAllBytes(encPath);
+		assertTrue(ParallelDeflaterOutputStream.isHeader(encrypted, 0, encrypted.length));
+		encrypted[13] ^= 1;
+		Files.write(encPath, encrypted);
+		MyCryptographyUtilityApplication app2 = new MyCryptographyUtilityApplication();
+		app2.commandLineParameters().process(new String[] {
+				"aes-256-gcm", "-d", encPath.toString(), "-o", decPath.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-nonce", "B87E2F0E1BEB474894C50196"
+		});
+		assertThrows(Exception.class, () -> app2.run());
+	}
+
+	@Test
+	public void test_pbkdf2_1_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_pbkdf2_1_1.in");
+		byte[] data = randomBytes(100003);
+		Files.write(inPath, data);
+		long misses = DerivedKeyCache.shared().misses();
+		byte[][] encrypted = new byte[2][];
+		for (int i = 0; i < encrypted.length; i++) {
+			Path encPath = Paths.get(TMPDIR, String.format("test_pbkdf2_1_1.%d.enc", i));
+			Path decPath = Paths.get(TMPDIR, String.format("test_pbkdf2_1_1.%d.dec", i));
+			MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(new String[] {
+					"aes-256-gcm", "-e", inPath.toString(), "-o", encPath.toString(),
+					"-keyphrase", "test_pbkdf2_1_1", "-kdf", "pbkdf2", "-iterations", "1000"
+			});
+			app.run();
+			encrypted[i] = Files.readAllBytes(encPath);
+			app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(new String[] {
+					"aes-256-gcm", "-d", encPath.toString(), "-o", decPath.toString(),
+					"-keyphrase", "test_pbkdf2_1_1", "-kdf", "pbkdf2"
+			});
+			app.run();
+			assertArrayEquals(data, Files.readAllBytes(decPath));
+		}
+		// separate runs do not share the salt, so the key is derived once for each, and found again for decryption
+		assertEquals(misses + 2, DerivedKeyCache.shared().misses());
+		// and every file gets its own salt and nonce
+		assertFalse(Arrays.equals(encrypted[0], encrypted[1]));
+	}
+
+	@Test
+	public void test_pbkdf2_1_2() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_pbkdf2_1_2.in");
+		Path encPath = Paths.get(TMPDIR, "test_pbkdf2_1_2.enc");
+		Path decPath = Paths.get(TMPDIR, "test_pbkdf2_1_2.dec");
+		Files.write(inPath, DATA3.getBytes("UTF-8"));
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-128-cbc", "-e", inPath.toString(), "-o", encPath.toString(),
+				"-keyphrase", "test_pbkdf2_1_2", "-kdf", "pbkdf2", "-iterations", "1000"
+		});
+		app.run();
+		app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-128-cbc", "-d", encPath.toString(), "-o", decPath.toString(),
+				"-keyphrase", "test_pbkdf2_1_2", "-kdf", "pbkdf2"
+		});
+		app.run();
+		assertEquals(DATA3, new String(Files.readAllBytes(decPath), "UTF-8"));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void test_pbkdf2_2_1() throws Exception {
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-cbc", "-e", "in", "-o", "out",
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-kdf", "pbkdf2"
+		});
+		app.run();
+	}
+
+	@Test
+	public void test_armor_1_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_armor_1_1.in");
+		Path encPath = Paths.get(TMPDIR, "test_armor_1_1.enc");
+		Path armPath = Paths.get(TMPDIR, "test_armor_1_1.txt");
+		Path decPath = Paths.get(TMPDIR, "test_armor_1_1.dec");
+		byte[] data = randomBytes(1000003);
+		Files.write(inPath, data);
+		for (String armor : new String[] { "hex", "base64" }) {
+			String[] args = new String[] {
+					"aes-256-cbc", "-e", inPath.toString(), "-overwrite", encPath.toString(),
+					"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+					"-i", "B87E2F0E1BEB474894C501960ECBE847"
+			};
+			MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(args);
+			app.run();
+			String[] armored = Arrays.copyOf(args, args.length + 2);
+			armored[4] = armPath.toString();
+			armored[args.length] = "-armor";
+			armored[args.length + 1] = armor;
+			app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(armored);
+			app.run();
+			byte[] text = Files.readAllBytes(armPath);
+			byte[] expected = Files.readAllBytes(encPath);
+			if (armor.equals("hex")) {
+				assertArrayEquals(expected, HexString.parse(new String(text, "US-ASCII")));
+			} else {
+				assertArrayEquals(expected, Base64.getMimeDecoder().decode(text));
+			}
+			app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(new String[] {
+					"aes-256-cbc", "-d", armPath.toString(), "-overwrite", decPath.toString(),
+					"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+					"-i", "B87E2F0E1BEB474894C501960ECBE847",
+					"-armor", armor
+			});
+			app.run();
+			assertArrayEquals(data, Files.readAllBytes(decPath));
+		}
+	}
+
+	@Test
+	public void test_armor_1_2() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_armor_1_2.in");
+		Path armPath = Paths.get(TMPDIR, "test_armor_1_2.txt");
+		Path decPath = Paths.get(TMPDIR, "test_armor_1_2.dec");
+		Files.write(inPath, DATA2.getBytes());
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-gcm", "-e", inPath.toString(), "-o", armPath.toString(),
+				"-keyphrase", "test_armor_1_2", "-kdf", "pbkdf2", "-iterations", "1000",
+				"-armor", "base64"
+		});
+		app.run();
+		// reflowed by a transport that does not keep line breaks
+		String text = new String(Files.readAllBytes(armPath), "US-ASCII");
+		Files.write(armPath, text.replace("\n", "").replaceAll("(.{10})", "$1\r\n").getBytes("US-ASCII"));
+		app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-gcm", "-d", armPath.toString(), "-o", decPath.toString(),
+				"-keyphrase", "test_armor_1_2", "-kdf", "pbkdf2",
+				"-armor", "base64"
+		});
+		app.run();
+		assertEquals(DATA2, new String(Files.readAllBytes(decPath)));
+	}
+
+	@Test
+	public void test_verify_1_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_verify_1_1.in");
+		Path encPath = Paths.get(TMPDIR, "test_verify_1_1.enc");
+		Files.write(inPath, randomBytes(100003));
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-gcm", "-e", inPath.toString(), "-o", encPath.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-nonce", "B87E2F0E1BEB474894C50196"
+		});
+		app.run();
+		String[] args = new String[] {
+				"aes-256-gcm", "-verify", encPath.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-nonce", "B87E2F0E1BEB474894C50196"
+		};
+		app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(args);
+		app.run();
+		try (Stream<Path> stream = Files.list(Paths.get(TMPDIR))) {
+			assertEquals(2, stream.filter((path) -> path.getFileName().toString().startsWith("test_verify_1_1.")).count());
+		}
+		byte[] encrypted = Files.readAllBytes(encPath);
+		encrypted[50000] ^= 1;
+		Files.write(encPath, encrypted);
+		app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(args);
+		try {
+			app.run();
+			fail("Tampered file passed verification.");
+		} catch (Exception e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void test_verify_2_1() throws Exception {
+		Path inDir = Paths.get(TMPDIR, "test_verify_2_1.in");
+		Path outDir = Paths.get(TMPDIR, "test_verify_2_1.out");
+		Files.createDirectories(inDir);
+		for (int i = 0; i < 20; i++) {
+			Files.write(inDir.resolve(String.format("%d.bin", i)), randomBytes(1000 * i + 1));
+		}
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-gcm", "-recursive", "-segmented", "-segsize", "4096",
+				"-e", inDir.toString(),
+				"-o", outDir.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-nonce", "B87E2F0E1BEB474894C50196"
+		});
+		app.run();
+		String[] args = new String[] {
+				"aes-256-gcm", "-recursive", "-segmented",
+				"-verify", outDir.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-nonce", "B87E2F0E1BEB474894C50196"
+		};
+		app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(args);
+		app.run();
+		Path damaged = outDir.resolve("7.bin");
+		byte[] encrypted = Files.readAllBytes(damaged);
+		encrypted[encrypted.length - 1] ^= 1;
+		Files.write(damaged, encrypted);
+		app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(args);
+		try {
+			app.run();
+			fail("Tampered file passed verification.");
+		} catch (RuntimeException e) {
+			assertEquals("1 of 20 jobs failed.", e.getMessage());
+		}
+	}
+
+	@Test
+	public void test_speed_1_1() throws Exception {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		PrintStream stdout = System.out;
+		System.setOut(new PrintStream(buf, true));
+		try {
+			MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(new String[] {
+					"aes-128-gcm", "-speed", "-provider", "SunJCE", "-bufsize", "1K"
+			});
+			app.run();
+		} finally {
+			System.setOut(stdout);
+		}
+		String[] lines = buf.toString().split("\n");
+		assertTrue(lines[0].startsWith("AES intrinsics: "));
+		assertTrue(lines[3].matches("type +provider +1024 bytes"));
+		assertTrue(lines[4].matches("aes-128-gcm +SunJCE +[0-9]+\\.[0-9]{2} MB/s"));
+		assertEquals(5, lines.length);
+	}
+
+	@Test
+	public void test_provider_1_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_provider_1_1.in");
+		Path encPath = Paths.get(TMPDIR, "test_provider_1_1.enc");
+		Path decPath = Paths.get(TMPDIR, "test_provider_1_1.dec");
+		byte[] data = randomBytes(100003);
+		Files.write(inPath, data);
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-192-ctr", "-e", inPath.toString(), "-o", encPath.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-i", "B87E2F0E1BEB474894C501960ECBE847",
+				"-provider", "fastest"
+		});
+		app.run();
+		app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-192-ctr", "-d", encPath.toString(), "-o", decPath.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-i", "B87E2F0E1BEB474894C501960ECBE847",
+				"-provider", "SunJCE"
+		});
+		app.run();
+		assertArrayEquals(data, Files.readAllBytes(decPath));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void test_provider_2_1() throws Exception {
+		new MyCryptographyUtilityApplication().commandLineParameters().process(new String[] {
+				"aes-256-cbc", "-provider", "NoSuchProvider"
+		});
+	}
+
+	@Test
+	public void test_fanout_1_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_fanout_1_1.in");
+		byte[] data = randomBytes(1000003);
+		Files.write(inPath, data);
+		String[] keys = {
+				"184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF",
+				"FEDCBA9876543210FEDCBA9876543210FEDCBA9876543210FEDCBA9876543210"
+		};
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-gcm", "-e", inPath.toString(),
+				"-nonce", "B87E2F0E1BEB474894C50196",
+				"-fanout", keys[0], Paths.get(TMPDIR, "test_fanout_1_1.0.enc").toString(),
+				"-fanout", keys[1], Paths.get(TMPDIR, "test_fanout_1_1.1.enc").toString(),
+				"-fanout", keys[2], Paths.get(TMPDIR, "test_fanout_1_1.2.enc").toString(),
+				"-bufsize", "16K"
+		});
+		app.run();
+		for (int i = 0; i < keys.length; i++) {
+			Path encPath = Paths.get(TMPDIR, String.format("test_fanout_1_1.%d.enc", i));
+			Path decPath = Paths.get(TMPDIR, String.format("test_fanout_1_1.%d.dec", i));
+			app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(new String[] {
+					"aes-256-gcm", "-d", encPath.toString(), "-o", decPath.toString(),
+					"-k", keys[i],
+					"-nonce", "B87E2F0E1BEB474894C50196"
+			});
+			app.run();
+			assertArrayEquals(data, Files.readAllBytes(decPath));
+		}
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void test_fanout_2_1() throws Exception {
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-cbc", "-e", "in",
+				"-fanout", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED", "out",
+				"-o", "out2"
+		});
+		app.run();
+	}
+
+	@Test
+	public void test_digest_1_1() throws Exception {
+		Path inPath = Paths.get(TMPDIR, "test_digest_1_1.in");
+		Path outPath = Paths.get(TMPDIR, "test_digest_1_1.out");
+		byte[] data = randomBytes(1000003);
+		Files.write(inPath, data);
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		PrintStream stdout = System.out;
+		System.setOut(new PrintStream(buf, true));
+		try {
+			MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(new String[] {
+					"aes-256-ctr", "-e", inPath.toString(), "-o", outPath.toString(),
+					"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+					"-i", "B87E2F0E1BEB474894C501960ECBE847",
+					"-digest", "sha-256,crc32c"
+			});
+			app.run();
+		} finally {
+			System.setOut(stdout);
+		}
+		String text = buf.toString();
+		byte[] encrypted = Files.readAllBytes(outPath);
+		CRC32C crc = new CRC32C();
+		crc.update(encrypted);
+		assertTrue(text.contains(String.format("SHA-256(in)= %s\n", HexString.toString(MessageDigest.getInstance("SHA-256").digest(data)))));
+		assertTrue(text.contains(String.format("SHA-256(out)= %s\n", HexString.toString(MessageDigest.getInstance("SHA-256").digest(encrypted)))));
+		assertTrue(text.contains(String.format("CRC32C(out)= %08X\n", crc.getValue())));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void test_digest_2_1() throws Exception {
+		new MyCryptographyUtilityApplication().commandLineParameters().process(new String[] {
+				"aes-256-cbc", "-digest", "no-such-digest"
+		});
+	}
+
+	@Test
+	public void test_incremental_1_1() throws Exception {
+		Path inDir = Paths.get(TMPDIR, "test_incremental_1_1.in");
+		Path outDir = Paths.get(TMPDIR, "test_incremental_1_1.out");
+		Path index = Paths.get(TMPDIR, "test_incremental_1_1.idx");
+		Files.createDirectories(inDir.resolve("sub"));
+		for (int i = 0; i < 10; i++) {
+			Files.write(inDir.resolve(String.format(i % 2 == 0 ? "%d.bin" : "sub/%d.bin", i)), randomBytes(1000 * i + 1));
+		}
+		String[] args = new String[] {
+				"aes-256-cbc", "-recursive",
+				"-e", inDir.toString(),
+				"-o", outDir.toString(),
+				"-incremental", index.toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-iv", "B87E2F0E1BEB474894C501967A8B9C0D"
+		};
+		assertEquals("0 unchanged, skipped", runIncremental(args));
+		assertEquals("10 unchanged, skipped", runIncremental(args));
+		// a new mtime alone does not count as a change
+		Files.setLastModifiedTime(inDir.resolve("2.bin"), FileTime.fromMillis(System.currentTimeMillis() + 60000L));
+		assertEquals("10 unchanged, skipped", runIncremental(args));
+		byte[] changed = randomBytes(3001);
+		changed[0] ^= 1;
+		Files.write(inDir.resolve("sub/3.bin"), changed);
+		Files.delete(outDir.resolve("4.bin"));
+		assertEquals("8 unchanged, skipped", runIncremental(args));
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-cbc",
+				"-d", outDir.resolve("sub/3.bin").toString(),
+				"-o", Paths.get(TMPDIR, "test_incremental_1_1.dec").toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-iv", "B87E2F0E1BEB474894C501967A8B9C0D"
+		});
+		app.run();
+		assertArrayEquals(changed, Files.readAllBytes(Paths.get(TMPDIR, "test_incremental_1_1.dec")));
+		// any change of the parameters redoes every file
+		args[args.length - 1] = "00000000000000000000000000000000";
+		assertEquals("0 unchanged, skipped", runIncremental(args));
+		// and so does a change of the key, although the index holds only an HMAC under it
+		args[args.length - 3] = "00000000000000000000000000000000000000000000000000000000000000FF";
+		assertEquals("0 unchanged, skipped", runIncremental(args));
+	}
+
+	@Test
+	public void test_incremental_2_1() throws Exception {
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-cbc",
+				"-e", Paths.get(TMPDIR, "test_incremental_2_1.in").toString(),
+				"-incremental", Paths.get(TMPDIR, "test_incremental_2_1.idx").toString(),
+				"-k", "184858A00FD7971F810848266EBCECEE5E8B69972C5FFAED622F5EE078671AED",
+				"-iv", "B87E2F0E1BEB474894C501967A8B9C0D"
+		});
+		try {
+			app.run();
+			fail("Incremental mode ran without -recursive.");
+		} catch (RuntimeException e) {
+			assertEquals("Incremental mode requires -recursive.", e.getMessage());
+		}
+	}
+
+	@Test
+	public void test_incremental_3_1() throws Exception {
+		Path path = Paths.get(TMPDIR, "test_incremental_3_1.idx");
+		Files.deleteIfExists(path);
+		int count = 100;
+		try (IncrementalIndex.Writer writer = new IncrementalIndex.Writer(path, 7)) {
+			// spills 14 sorted runs of 7 records, merged with the 2 left on the heap
+			for (int i = 0; i < count; i++) {
+				byte[] hash = IncrementalIndex.keyOf(String.valueOf(i));
+				writer.add(new IncrementalIndex.Entry(hash, i, i, hash, hash, i, hash));
+			}
+			writer.commit();
+		}
+		try (Stream<Path> stream = Files.list(Paths.get(TMPDIR))) {
+			assertEquals(0, stream.filter((p) -> p.getFileName().toString().startsWith("test_incremental_3_1.idx.")).count());
+		}
+		try (IncrementalIndex index = IncrementalIndex.open(path)) {
+			assertEquals(count, index.count());
+			for (int i = 0; i < count; i++) {
+				IncrementalIndex.Entry entry = index.find(IncrementalIndex.keyOf(String.valueOf(i)));
+				assertNotNull(entry);
+				assertEquals(i, entry.size);
+			}
+			assertNull(index.find(IncrementalIndex.keyOf("none")));
+		}
+	}
+
+	/**
+	 * Runs the given command line and returns the last line of the output, that tells how many files were skipped.
+	 */
+	private static String runIncremental(String[] args) throws Exception {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		PrintStream stdout = System.out;
+		System.setOut(new PrintStream(buf, true));
+		try {
+			MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(args);
+			app.run();
+		} finally {
+			System.setOut(stdout);
+		}
+		String[] lines = buf.toString().split("\\R");
+		return lines[lines.length - 1];
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void test_pbkdf2_3_1() throws Exception {
+		MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+		app.commandLineParameters().process(new String[] {
+				"aes-256-gcm", "-e", "in", "-o", "out", "-keyphrase", "test_pbkdf2_3_1",
+				"-kdf", "pbkdf2", "-kdf", "sha256"
+		});
+	}
+
+	@Test
+	public void test_pbkdf2_3_2() throws Exception {
+		DerivedKeyCache.Salts cache = new DerivedKeyCache.Salts(2);
+		byte[] salt1 = cache.saltFor("phrase1", 1000, 32);
+		byte[] salt2 = cache.saltFor("phrase2", 1000, 32);
+		assertArrayEquals(salt1, cache.saltFor("phrase1", 1000, 32));
+		cache.saltFor("phrase3", 1000, 32);
+		// phrase2 is the least recently used, and is dropped
+		assertArrayEquals(salt1, cache.saltFor("phrase1", 1000, 32));
+		assertFalse(Arrays.equals(salt2, cache.saltFor("phrase2", 1000, 32)));
+	}
+
+	@Test
+	public void test_pbkdf2_3_3() throws Exception {
+		Path inDir = Paths.get(TMPDIR, "test_pbkdf2_3_3.in");
+		Path outDir = Paths.get(TMPDIR, "test_pbkdf2_3_3.out");
+		Files.createDirectories(inDir);
+		Files.write(inDir.resolve("1.bin"), randomBytes(1001));
+		Files.write(inDir.resolve("2.bin"), randomBytes(1002));
+		byte[][] salts = new byte[2][];
+		for (int i = 0; i < 2; i++) {
+			long misses = DerivedKeyCache.shared().misses();
+			MyCryptographyUtilityApplication app = new MyCryptographyUtilityApplication();
+			app.commandLineParameters().process(new String[] {
+					"aes-256-gcm", "-recursive", "-e", inDir.toString(), "-overwrite", outDir.toString(),
+					"-keyphrase", "test_pbkdf2_3_3", "-kdf", "pbkdf2", "-iterations", "1000"
+			});
+			app.run();
+			// the files of a run share the salt, and so the derivation
+			assertEquals(misses + 1, DerivedKeyCache.shared().misses());
+			try (InputStream in1 = Files.newInputStream(outDir.resolve("1.bin")); InputStream in2 = Files.newInputStream(outDir.resolve("2.bin"))) {
+				salts[i] = KdfHeader.read(in1).salt();
+				assertArrayEquals(salts[i], KdfHeader.read(in2).salt());
+			}
+		}
+		// but the next run does not
+		assertFalse(Arrays.equals(salts[0], salts[1]));
+	}
+
+	private static byte[] randomBytes(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+
 }
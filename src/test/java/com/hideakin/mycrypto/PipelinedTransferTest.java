@@ -0,0 +1,144 @@
+package com.hideakin.mycrypto;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+public class PipelinedTransferTest {
+
+	private static final SecretKeySpec KEY = new SecretKeySpec(new byte[32], "AES");
+	private static final byte[] IV = new byte[16];
+
+	private static byte[] sequential(Cipher cipher, byte[] data) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CipherTransfer transfer = new CipherTransfer(cipher, 1000);
+		transfer.update(new ByteArrayInputStream(data), out);
+		transfer.doFinal(out);
+		return out.toByteArray();
+	}
+
+	private static byte[] pipelined(Cipher cipher, byte[] data) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PipelinedTransfer transfer = new PipelinedTransfer(cipher, 1000, 2);
+		transfer.transfer(new ByteArrayInputStream(data), out);
+		assertEquals(data.length, transfer.inBytes());
+		assertEquals(out.size(), transfer.outBytes());
+		return out.toByteArray();
+	}
+
+	@Test
+	public void test_cbc() throws Exception {
+		byte[] data = new byte[123457];
+		new Random(1).nextBytes(data);
+		Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+		cipher.init(Cipher.ENCRYPT_MODE, KEY, new IvParameterSpec(IV));
+		byte[] expected = sequential(cipher, data);
+		cipher.init(Cipher.ENCRYPT_MODE, KEY, new IvParameterSpec(IV));
+		assertArrayEquals(expected, pipelined(cipher, data));
+	}
+
+	@Test
+	public void test_gcm_decrypt() throws Exception {
+		byte[] data = new byte[54321];
+		new Random(2).nextBytes(data);
+		byte[] nonce = new byte[12];
+		Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+		cipher.init(Cipher.ENCRYPT_MODE, KEY, new GCMParameterSpec(128, nonce));
+		byte[] encrypted = cipher.doFinal(data);
+		cipher.init(Cipher.DECRYPT_MODE, KEY, new GCMParameterSpec(128, nonce));
+		assertArrayEquals(data, pipelined(cipher, encrypted));
+	}
+
+	@Test
+	public void test_write_failure() throws Exception {
+		Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+		cipher.init(Cipher.ENCRYPT_MODE, KEY, new IvParameterSpec(IV));
+		PipelinedTransfer transfer = new PipelinedTransfer(cipher, 1000, 2);
+		OutputStream out = new OutputStream() {
+
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("Disk full.");
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				throw new IOException("Disk full.");
+			}
+
+		};
+		try {
+			transfer.transfer(new ByteArrayInputStream(new byte[100000]), out);
+			fail();
+		} catch (IOException e) {
+			assertEquals("Disk full.", e.getMessage());
+		}
+		assertFalse(Thread.currentThread().isInterrupted());
+	}
+
+	@Test(timeout = 10000)
+	public void test_write_failure_while_reading() throws Exception {
+		Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+		cipher.init(Cipher.ENCRYPT_MODE, KEY, new IvParameterSpec(IV));
+		PipelinedTransfer transfer = new PipelinedTransfer(cipher, 1000, 2);
+		CountDownLatch closed = new CountDownLatch(1);
+		// like standard input of an idle producer, blocks after the first chunk and ignores interruption
+		InputStream in = new InputStream() {
+
+			private boolean _first = true;
+
+			@Override
+			public int read() throws IOException {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (_first) {
+					_first = false;
+					return len;
+				}
+				while (closed.getCount() > 0) {
+					try {
+						closed.await();
+					} catch (InterruptedException e) {
+						// ignores it
+					}
+				}
+				return -1;
+			}
+
+		};
+		OutputStream out = new OutputStream() {
+
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("Broken pipe.");
+			}
+
+		};
+		try {
+			transfer.transfer(in, out);
+			fail();
+		} catch (IOException e) {
+			assertEquals("Broken pipe.", e.getMessage());
+		} finally {
+			closed.countDown();
+		}
+		assertFalse(Thread.currentThread().isInterrupted());
+	}
+
+}